@@ -0,0 +1,90 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.CachedModel;
+import com.kylecorry.lann.NN;
+import com.kylecorry.matrix.Matrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a single prediction through a prediction cache, for a given fraction of repeated inputs. Both
+ * benchmarks predict the same sequence of inputs, so predict is the baseline for predictCached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedPredictBenchmark {
+
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * The number of inputs which repeat. It is an eighth of the cache, so the unique inputs between two uses of a
+     * repeated input do not evict it, and the measured hit rate matches the parameter.
+     */
+    private static final int REPEATED_INPUTS = CACHE_SIZE / 8;
+
+    private static final int SEQUENCE_LENGTH = 1 << 14;
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    /**
+     * The fraction of predictions whose input was predicted recently.
+     */
+    @Param({"0", "0.5", "0.9", "0.99"})
+    public double hitRate;
+
+    private NN net;
+    private CachedModel cachedNet;
+    private double[][] repeated;
+    private double[] unique;
+    private double uniqueCount;
+    private int[] sequence;
+    private int next;
+
+    @Setup
+    public void setup() {
+        int[] layers = Topologies.parse(topology);
+        net = Topologies.build(topology);
+        cachedNet = new CachedModel.Builder(net).setMaxSize(CACHE_SIZE).build();
+        Random random = new Random(0);
+        repeated = new double[REPEATED_INPUTS][];
+        for (int i = 0; i < repeated.length; i++)
+            repeated[i] = Topologies.randomVector(layers[0], random);
+        unique = Topologies.randomVector(layers[0], random);
+        // The index of the repeated input of each prediction, or -1 for a unique input
+        sequence = new int[SEQUENCE_LENGTH];
+        for (int i = 0; i < sequence.length; i++)
+            sequence[i] = random.nextDouble() < hitRate ? random.nextInt(repeated.length) : -1;
+    }
+
+    /**
+     * Get the input of the next prediction. A unique input has a first value which was never used before, so it
+     * is never in the cache, even after the sequence wraps around.
+     *
+     * @return The input.
+     */
+    private double[] nextInput() {
+        int index = sequence[next];
+        next = (next + 1) % sequence.length;
+        if (index >= 0)
+            return repeated[index];
+        unique[0] = ++uniqueCount;
+        return unique;
+    }
+
+    @Benchmark
+    public Matrix predict() {
+        return net.predict(nextInput());
+    }
+
+    @Benchmark
+    public Matrix predictCached() {
+        return cachedNet.predict(nextInput());
+    }
+}
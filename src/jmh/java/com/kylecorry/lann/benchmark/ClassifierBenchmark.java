@@ -0,0 +1,42 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.Classifier;
+import com.kylecorry.lann.IClassifier;
+import com.kylecorry.matrix.Matrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of classifying a single input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    private IClassifier<Integer> classifier;
+    private Matrix input;
+
+    @Setup
+    public void setup() {
+        int[] layers = Topologies.parse(topology);
+        Integer[] labels = new Integer[layers[layers.length - 1]];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = i;
+        classifier = new Classifier<>(Topologies.build(topology), labels);
+        input = new Matrix(Topologies.randomVector(layers[0], new Random(0)));
+    }
+
+    @Benchmark
+    public IClassifier.Classification<Integer> classify() {
+        return classifier.classify(input);
+    }
+}
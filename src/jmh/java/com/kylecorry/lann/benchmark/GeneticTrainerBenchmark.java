@@ -0,0 +1,60 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.ArrayDataset;
+import com.kylecorry.lann.Dataset;
+import com.kylecorry.lann.GeneticTrainer;
+import com.kylecorry.lann.NN;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time taken to evaluate and evolve one generation of a genetic trainer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneticTrainerBenchmark {
+
+    private static final int SAMPLES = 16;
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    @Param({"50"})
+    public int population;
+
+    @Param({"NONE", "UNIFORM", "ONE_POINT"})
+    public String crossover;
+
+    private GeneticTrainer trainer;
+    private GeneticTrainer.FitnessFunction fitness;
+
+    @Setup
+    public void setup() {
+        int[] layers = Topologies.parse(topology);
+        Random random = new Random(0);
+        final Dataset data = new ArrayDataset(Topologies.randomInput(SAMPLES, layers[0], random),
+                Topologies.randomOneHot(SAMPLES, layers[layers.length - 1], random));
+        trainer = new GeneticTrainer(layers, population, 0.1, 0.1, true, true);
+        trainer.setRandom(random);
+        trainer.setCrossover(GeneticTrainer.Crossover.valueOf(crossover));
+        fitness = new GeneticTrainer.FitnessFunction() {
+            @Override
+            public double fitness(NN network) {
+                return network.evaluate(data);
+            }
+        };
+    }
+
+    @Benchmark
+    public GeneticTrainer generation() {
+        trainer.evaluate(fitness);
+        trainer.evolve(false);
+        return trainer;
+    }
+}
@@ -0,0 +1,51 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.NN;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time taken to save and load a network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    private NN net;
+    private byte[] saved;
+
+    @Setup
+    public void setup() {
+        net = Topologies.build(topology);
+        saved = save();
+    }
+
+    @Benchmark
+    public byte[] save() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        net.save(os);
+        return os.toByteArray();
+    }
+
+    @Benchmark
+    public NN load() {
+        net.load(new ByteArrayInputStream(saved));
+        return net;
+    }
+
+    @Benchmark
+    public NN roundTrip() {
+        net.load(new ByteArrayInputStream(save()));
+        return net;
+    }
+}
@@ -0,0 +1,84 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.CompiledModel;
+import com.kylecorry.lann.FloatInferenceModel;
+import com.kylecorry.lann.InferenceModel;
+import com.kylecorry.lann.NN;
+import com.kylecorry.lann.QuantizedInferenceModel;
+import com.kylecorry.matrix.Matrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a single prediction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictBenchmark {
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    private NN net;
+    private FloatInferenceModel floatNet;
+    private QuantizedInferenceModel quantizedNet;
+    private InferenceModel prunedNet;
+    private CompiledModel compiledNet;
+    private double[] input;
+    private double[] output;
+
+    @Setup
+    public void setup() {
+        int[] layers = Topologies.parse(topology);
+        net = Topologies.build(topology);
+        floatNet = net.toFloatInferenceModel();
+        quantizedNet = net.toQuantizedInferenceModel(QuantizedInferenceModel.Granularity.PER_ROW);
+        compiledNet = net.compile();
+        NN pruned = Topologies.build(topology);
+        pruned.pruneToSparsity(0.9);
+        prunedNet = pruned.toInferenceModel();
+        input = Topologies.randomVector(layers[0], new Random(0));
+        output = new double[layers[layers.length - 1]];
+    }
+
+    @Benchmark
+    public Matrix predict() {
+        return net.predict(input);
+    }
+
+    @Benchmark
+    public double[] predictIntoArray() {
+        net.predict(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] predictFloat() {
+        floatNet.predict(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] predictQuantized() {
+        quantizedNet.predict(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] predictPruned() {
+        prunedNet.predict(input, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] predictCompiled() {
+        compiledNet.predict(input, output);
+        return output;
+    }
+}
@@ -0,0 +1,92 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.NN;
+import com.kylecorry.lann.activation.Sigmoid;
+import com.kylecorry.lann.activation.Softmax;
+import com.kylecorry.matrix.Matrix;
+
+import java.util.Random;
+
+/**
+ * Builds the networks and data used by the benchmarks.
+ */
+final class Topologies {
+
+    /**
+     * The topologies every benchmark runs over, as the size of each layer separated by dashes.
+     */
+    static final String SMALL = "2-4-3";
+    static final String MEDIUM = "64-128-10";
+    static final String LARGE = "256-512-512-10";
+
+    private Topologies() {
+    }
+
+    /**
+     * Parse a topology.
+     *
+     * @param topology The size of each layer separated by dashes, such as 2-4-3.
+     * @return The size of each layer.
+     */
+    static int[] parse(String topology) {
+        String[] sizes = topology.split("-");
+        int[] layers = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+            layers[i] = Integer.parseInt(sizes[i]);
+        return layers;
+    }
+
+    /**
+     * Build a network with Sigmoid hidden layers and a Softmax output layer.
+     *
+     * @param topology The size of each layer separated by dashes.
+     * @return The network.
+     */
+    static NN build(String topology) {
+        int[] layers = parse(topology);
+        NN.Builder builder = new NN.Builder();
+        for (int i = 1; i < layers.length; i++)
+            builder.addLayer(layers[i - 1], layers[i], i == layers.length - 1 ? new Softmax() : new Sigmoid());
+        return builder.build();
+    }
+
+    /**
+     * Create random input rows.
+     *
+     * @param count  The number of rows.
+     * @param size   The size of each row.
+     * @param random The source of the values.
+     * @return The rows.
+     */
+    static Matrix[] randomInput(int count, int size, Random random) {
+        Matrix[] input = new Matrix[count];
+        for (int i = 0; i < count; i++)
+            input[i] = new Matrix(randomVector(size, random));
+        return input;
+    }
+
+    /**
+     * Create random one hot output rows.
+     *
+     * @param count  The number of rows.
+     * @param size   The size of each row.
+     * @param random The source of the classes.
+     * @return The rows.
+     */
+    static Matrix[] randomOneHot(int count, int size, Random random) {
+        Matrix[] output = new Matrix[count];
+        for (int i = 0; i < count; i++) {
+            double[] row = new double[size];
+            row[random.nextInt(size)] = 1;
+            output[i] = new Matrix(row);
+        }
+        return output;
+    }
+
+    static double[] randomVector(int size, Random random) {
+        double[] vector = new double[size];
+        for (int i = 0; i < size; i++)
+            vector[i] = random.nextGaussian();
+        return vector;
+    }
+}
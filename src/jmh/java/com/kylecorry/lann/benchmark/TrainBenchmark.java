@@ -0,0 +1,53 @@
+package com.kylecorry.lann.benchmark;
+
+import com.kylecorry.lann.NN;
+import com.kylecorry.lann.optimizer.Adam;
+import com.kylecorry.lann.optimizer.GradientDescent;
+import com.kylecorry.matrix.Matrix;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time taken by one training epoch over a fixed data set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({Topologies.SMALL, Topologies.MEDIUM, Topologies.LARGE})
+    public String topology;
+
+    @Param({"1", "32"})
+    public int batchSize;
+
+    @Param({"GradientDescent", "Adam"})
+    public String optimizer;
+
+    private NN net;
+    private Matrix[] input;
+    private Matrix[] output;
+
+    @Setup
+    public void setup() {
+        int[] layers = Topologies.parse(topology);
+        Random random = new Random(0);
+        net = Topologies.build(topology);
+        net.setBatchSize(batchSize);
+        net.setOptimizer(optimizer.equals("Adam") ? new Adam() : new GradientDescent());
+        input = Topologies.randomInput(SAMPLES, layers[0], random);
+        output = Topologies.randomOneHot(SAMPLES, layers[layers.length - 1], random);
+    }
+
+    @Benchmark
+    public double epoch() {
+        return net.train(input, output);
+    }
+}
@@ -1,23 +1,163 @@
 package com.kylecorry.lann;
 
+import com.kylecorry.lann.schedule.LearningRateSchedule;
 import com.kylecorry.matrix.Matrix;
 
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class AbstractMachineLearningAlgorithm implements MachineLearningAlgorithm {
 
+	private final AtomicLong modifications = new AtomicLong();
+
 	public double fit(Matrix[] input, Matrix[] output, double maxIterations) {
 		return fit(input, output, maxIterations, 0.001);
 	}
 
 	public double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance) {
+		return fit(new ArrayDataset(input, output), maxIterations, tolerance);
+	}
+
+	public double fit(Dataset data, double maxIterations, double tolerance, TrainingListener listener) {
+		return fit(data, new FitOptions.Builder().setMaxIterations(maxIterations).setTolerance(tolerance)
+				.setListener(listener).build());
+	}
+
+	public double fit(Matrix[] input, Matrix[] output, FitOptions options) {
+		if (options.getValidationSplit() == 0 || options.getValidationData() != null)
+			return fit(new ArrayDataset(input, output), options.getValidationData(), options);
+		// Hold out the last samples, so the split is the same on every fit
+		int split = input.length - (int) Math.round(input.length * options.getValidationSplit());
+		return fit(new ArrayDataset(Arrays.copyOfRange(input, 0, split), Arrays.copyOfRange(output, 0, split)),
+				new ArrayDataset(Arrays.copyOfRange(input, split, input.length),
+						Arrays.copyOfRange(output, split, output.length)),
+				options);
+	}
+
+	public double fit(Dataset data, FitOptions options) {
+		if (options.getValidationSplit() != 0 && options.getValidationData() == null) {
+			throw new InvalidParameterException("A data set can not be split, set validation data instead");
+		}
+		return fit(data, options.getValidationData(), options);
+	}
+
+	private double fit(Dataset data, Dataset validationData, FitOptions options) {
+		LearningRateSchedule schedule = options.getLearningRateSchedule();
+		double initialLearningRate = schedule == null ? Double.NaN : getLearningRate();
 		double error = Double.POSITIVE_INFINITY;
-		for (int i = 0; i < maxIterations; i++) {
-			error = train(input, output);
-			if (error <= tolerance)
-				return error;
+		double bestError = Double.POSITIVE_INFINITY;
+		double bestTrainingError = Double.POSITIVE_INFINITY;
+		double[] bestParameters = null;
+		int iterationsSinceBest = 0;
+		try {
+			for (int i = 0; i < options.getMaxIterations(); i++) {
+				if (schedule != null)
+					setLearningRate(schedule.getLearningRate(i, initialLearningRate));
+				long start = System.nanoTime();
+				int samples = 0;
+				error = 0;
+				Iterator<Dataset.Batch> batches = data.iterator();
+				try {
+					while (batches.hasNext()) {
+						Dataset.Batch batch = batches.next();
+						error += train(batch.getInput(), batch.getOutput());
+						samples += batch.size();
+					}
+				} finally {
+					Dataset.close(batches);
+				}
+				long wallTime = System.nanoTime() - start;
+				double validationError = validationData == null ? Double.NaN : evaluate(validationData);
+				if (options.getListener() != null)
+					options.getListener().onEpochEnd(new TrainingListener.Epoch(i, error, wallTime, samples,
+							getGradientNorm(), validationError));
+				double monitoredError = validationData == null ? error : validationError;
+				if (monitoredError < bestError - options.getMinDelta()) {
+					bestError = monitoredError;
+					iterationsSinceBest = 0;
+					if (options.isRestoreBestWeights()) {
+						bestParameters = getParameters();
+						bestTrainingError = error;
+					}
+				} else {
+					iterationsSinceBest++;
+				}
+				if (error <= options.getTolerance()
+						|| (options.getPatience() > 0 && iterationsSinceBest >= options.getPatience()))
+					break;
+			}
+			if (bestParameters != null && iterationsSinceBest > 0) {
+				setParameters(bestParameters);
+				// The last error belongs to the discarded weights
+				error = bestTrainingError;
+			}
+		} finally {
+			if (schedule != null)
+				setLearningRate(initialLearningRate);
 		}
 		return error;
 	}
 
+	/**
+	 * Get the L2 norm of the gradient used by the most recent weight update, which is reported to training listeners.
+	 * 
+	 * @return The gradient norm, or NaN if it is not tracked by this algorithm.
+	 */
+	protected double getGradientNorm() {
+		return Double.NaN;
+	}
+
+	/**
+	 * Get the learning rate, which a learning rate schedule adjusts during a
+	 * fit.
+	 * 
+	 * @return The learning rate.
+	 */
+	protected double getLearningRate() {
+		throw new UnsupportedOperationException("This algorithm does not support learning rate schedules");
+	}
+
+	protected void setLearningRate(double learningRate) {
+		throw new UnsupportedOperationException("This algorithm does not support learning rate schedules");
+	}
+
+	/**
+	 * Get a copy of every trained parameter of the algorithm, which is used
+	 * to restore the best weights of a fit.
+	 * 
+	 * @return The parameters.
+	 */
+	protected double[] getParameters() {
+		throw new UnsupportedOperationException("This algorithm does not support restoring its weights");
+	}
+
+	protected void setParameters(double[] parameters) {
+		throw new UnsupportedOperationException("This algorithm does not support restoring its weights");
+	}
+
+	/**
+	 * Record that the predictions of the algorithm changed, such as after
+	 * training or loading, so the predictions cached by a
+	 * {@link CachedModel} are discarded. Call it in a finally block, since a
+	 * failed update may have already changed some of the weights. Weights
+	 * which are edited in place without calling it are not seen by the
+	 * cache, which must then be cleared with {@link CachedModel#invalidate()}.
+	 */
+	protected void markModified() {
+		modifications.incrementAndGet();
+	}
+
+	/**
+	 * Get the number of times the algorithm was modified.
+	 * 
+	 * @return The number of modifications.
+	 */
+	long getModificationCount() {
+		return modifications.get();
+	}
+
 	public double fit(Matrix[] input, Matrix[] output) {
 		return fit(input, output, 1000, 0.001);
 	}
@@ -28,8 +168,9 @@ public abstract class AbstractMachineLearningAlgorithm implements MachineLearnin
 
 	public double accuracy(Matrix[] input, Matrix[] output, boolean argmax) {
 		double score = 0;
+		Matrix[] predictions = predict(input);
 		for (int i = 0; i < input.length; i++) {
-			Matrix prediction = predict(input[i]);
+			Matrix prediction = predictions[i];
 			if (argmax)
 				prediction = prediction.oneHot();
 			if (prediction.equals(output[i].transpose()))
@@ -0,0 +1,79 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A data set of samples which are already in memory.
+ */
+public class ArrayDataset implements Dataset {
+
+    private Matrix[] input;
+    private Matrix[] output;
+    private int batchSize;
+
+    /**
+     * Create a data set from arrays of samples.
+     *
+     * @param input     The input of each sample.
+     * @param output    The desired output of each sample in the same order as the input.
+     * @param batchSize The number of samples per batch.
+     */
+    public ArrayDataset(Matrix[] input, Matrix[] output, int batchSize) {
+        if (input.length != output.length) {
+            throw new InvalidParameterException("The number of inputs did not match the number of outputs");
+        }
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Batch size must be at least 1");
+        }
+        this.input = input;
+        this.output = output;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create a data set from arrays of samples, which are read as a single batch.
+     *
+     * @param input  The input of each sample.
+     * @param output The desired output of each sample in the same order as the input.
+     */
+    public ArrayDataset(Matrix[] input, Matrix[] output) {
+        this(input, output, Math.max(input.length, 1));
+    }
+
+    @Override
+    public Iterator<Batch> iterator() {
+        return new Iterator<Batch>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < input.length;
+            }
+
+            @Override
+            public Batch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int end = Math.min(position + batchSize, input.length);
+                Batch batch;
+                if (position == 0 && end == input.length)
+                    batch = new Batch(input, output);
+                else
+                    batch = new Batch(Arrays.copyOfRange(input, position, end), Arrays.copyOfRange(output, position, end));
+                position = end;
+                return batch;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
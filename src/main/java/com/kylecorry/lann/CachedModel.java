@@ -0,0 +1,425 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A machine learning algorithm which remembers the predictions of another algorithm, so repeated inputs are not
+ * predicted again. The cache holds a bounded number of predictions and evicts the least recently used one when it is
+ * full, and it can also expire predictions after a time to live. Use {@link CachedModel.Builder} to create one.
+ * <p>
+ * Training or fitting through the cache discards every prediction. When the wrapped algorithm extends
+ * {@link AbstractMachineLearningAlgorithm}, training, loading or setting its parameters directly discards them as
+ * well. Any other change, such as editing the weights of the wrapped algorithm in place or changing an algorithm
+ * which does not extend it, is not seen by the cache, so call {@link #invalidate()} afterwards.
+ * <p>
+ * The cache is thread safe as long as the wrapped algorithm is. Cached predictions are found without locking, and
+ * misses are predicted outside of any lock, so a slow prediction does not block other threads. Only the order of use
+ * is kept under a short lock.
+ */
+public class CachedModel implements MachineLearningAlgorithm {
+
+    private final MachineLearningAlgorithm model;
+    private final long timeToLiveNanos;
+    private final ConcurrentHashMap<Key, CachedPrediction> cache;
+    // Holds the same entries as the cache in the order they were used, guarded by its own monitor
+    private final LinkedHashMap<Key, CachedPrediction> recency;
+    private volatile long modificationCount;
+    private volatile long generation;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+    private CachedModel(MachineLearningAlgorithm model, final int maxSize, long timeToLiveNanos) {
+        this.model = model;
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.modificationCount = getModificationCount();
+        cache = new ConcurrentHashMap<>();
+        // Access order moves each hit to the end, so the eldest entry is the least recently used
+        recency = new LinkedHashMap<Key, CachedPrediction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedPrediction> eldest) {
+                if (size() > maxSize) {
+                    cache.remove(eldest.getKey(), eldest.getValue());
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the algorithm whose predictions are cached.
+     *
+     * @return The wrapped algorithm.
+     */
+    public MachineLearningAlgorithm getModel() {
+        return model;
+    }
+
+    public Matrix predict(double... input) {
+        long generation = currentGeneration();
+        double[] prediction = lookup(new Key(input));
+        if (prediction == null) {
+            prediction = toArray(model.predict(input));
+            store(new Key(input.clone()), prediction, generation);
+        }
+        return toColumn(prediction);
+    }
+
+    /**
+     * Make a prediction for each row of the input.
+     *
+     * @param input The input of the machine learning algorithm, with one sample per row.
+     * @return The predictions, with one prediction per column in the same order as the input.
+     */
+    public Matrix predict(Matrix input) {
+        Matrix predictions = null;
+        for (int r = 0; r < input.getNumRows(); r++) {
+            Matrix prediction = predict(input.getRow(r));
+            if (predictions == null)
+                predictions = new Matrix(prediction.getNumRows(), input.getNumRows());
+            for (int c = 0; c < prediction.getNumRows(); c++)
+                predictions.set(c, r, prediction.get(c, 0));
+        }
+        return predictions == null ? new Matrix(0, 0) : predictions;
+    }
+
+    public Matrix predictBatch(Matrix rows) {
+        return predict(rows).transpose();
+    }
+
+    public Matrix[] predict(Matrix[] input) {
+        Matrix[] predictions = new Matrix[input.length];
+        for (int i = 0; i < input.length; i++)
+            predictions[i] = predict(toArray(input[i]));
+        return predictions;
+    }
+
+    public double train(Matrix[] input, Matrix[] output) {
+        try {
+            return model.train(input, output);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double train(Dataset data) {
+        try {
+            return model.train(data);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Matrix[] input, Matrix[] output, double maxIterations) {
+        try {
+            return model.fit(input, output, maxIterations);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance) {
+        try {
+            return model.fit(input, output, maxIterations, tolerance);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance,
+                      TrainingListener listener) {
+        try {
+            return model.fit(input, output, maxIterations, tolerance, listener);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Matrix[] input, Matrix[] output) {
+        try {
+            return model.fit(input, output);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Dataset data, double maxIterations, double tolerance) {
+        try {
+            return model.fit(data, maxIterations, tolerance);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Dataset data, double maxIterations, double tolerance, TrainingListener listener) {
+        try {
+            return model.fit(data, maxIterations, tolerance, listener);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Dataset data) {
+        try {
+            return model.fit(data);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Matrix[] input, Matrix[] output, FitOptions options) {
+        try {
+            return model.fit(input, output, options);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double fit(Dataset data, FitOptions options) {
+        try {
+            return model.fit(data, options);
+        } finally {
+            invalidate();
+        }
+    }
+
+    public double evaluate(Dataset data) {
+        return model.evaluate(data);
+    }
+
+    public double accuracy(Matrix[] input, Matrix[] output) {
+        return model.accuracy(input, output);
+    }
+
+    public double accuracy(Matrix[] input, Matrix[] output, boolean argmax) {
+        return model.accuracy(input, output, argmax);
+    }
+
+    /**
+     * Discard every cached prediction. The statistics are kept.
+     */
+    public void invalidate() {
+        synchronized (recency) {
+            cache.clear();
+            recency.clear();
+            modificationCount = getModificationCount();
+            generation++;
+        }
+    }
+
+    /**
+     * Get the number of predictions in the cache, which may include expired predictions which were not looked up yet.
+     *
+     * @return The number of predictions.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of predictions which were found in the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of predictions which were not in the cache, or had expired, and were predicted by the wrapped
+     * algorithm.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of predictions which were removed to make room for new ones.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the fraction of predictions which were found in the cache.
+     *
+     * @return The hit rate from [0, 1], or 0 if nothing was predicted.
+     */
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long requests = hits + misses.get();
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    /**
+     * Discard the cache if the wrapped algorithm was modified since it was last checked.
+     *
+     * @return The generation of the cache, which changes every time it is discarded.
+     */
+    private long currentGeneration() {
+        if (modificationCount != getModificationCount()) {
+            invalidate();
+        }
+        return generation;
+    }
+
+    /**
+     * Find the cached prediction of an input.
+     *
+     * @param key The input, which is not stored.
+     * @return The prediction, or null if it is not cached or expired.
+     */
+    private double[] lookup(Key key) {
+        CachedPrediction entry = cache.get(key);
+        if (entry != null && timeToLiveNanos > 0 && System.nanoTime() - entry.created > timeToLiveNanos) {
+            synchronized (recency) {
+                if (cache.remove(key, entry))
+                    recency.remove(key);
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        synchronized (recency) {
+            // Moves the entry to the end of the order, unless it was evicted in the meantime
+            recency.get(key);
+        }
+        return entry.prediction;
+    }
+
+    /**
+     * Cache a prediction.
+     *
+     * @param key        The input, which must not be modified afterwards.
+     * @param prediction The prediction of the input.
+     * @param generation The generation of the cache before the prediction was made.
+     */
+    private void store(Key key, double[] prediction, long generation) {
+        synchronized (recency) {
+            // A prediction made while the model was modified may be stale, so it is only kept if nothing changed since
+            if (generation != this.generation || modificationCount != getModificationCount()) {
+                return;
+            }
+            CachedPrediction entry = new CachedPrediction(prediction, System.nanoTime());
+            cache.put(key, entry);
+            recency.put(key, entry);
+        }
+    }
+
+    private long getModificationCount() {
+        return model instanceof AbstractMachineLearningAlgorithm ?
+                ((AbstractMachineLearningAlgorithm) model).getModificationCount() : 0;
+    }
+
+    private static double[] toArray(Matrix matrix) {
+        double[] values = new double[matrix.getNumRows() * matrix.getNumCols()];
+        for (int r = 0; r < matrix.getNumRows(); r++)
+            for (int c = 0; c < matrix.getNumCols(); c++)
+                values[r * matrix.getNumCols() + c] = matrix.get(r, c);
+        return values;
+    }
+
+    private static Matrix toColumn(double[] values) {
+        Matrix column = new Matrix(values.length, 1);
+        for (int i = 0; i < values.length; i++)
+            column.set(i, 0, values[i]);
+        return column;
+    }
+
+    /**
+     * The input of a cached prediction. The hash is computed once from the bits of the values, so inputs only match
+     * when every value is identical.
+     */
+    private static class Key {
+        private final double[] values;
+        private final int hash;
+
+        Key(double[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && hash == ((Key) other).hash && Arrays.equals(values, ((Key) other).values);
+        }
+    }
+
+    private static class CachedPrediction {
+        private final double[] prediction;
+        private final long created;
+
+        CachedPrediction(double[] prediction, long created) {
+            this.prediction = prediction;
+            this.created = created;
+        }
+    }
+
+    public static class Builder {
+
+        private final MachineLearningAlgorithm model;
+        private int maxSize = 10000;
+        private long timeToLiveNanos = 0;
+
+        /**
+         * A builder for a cache of the predictions of an algorithm. By default the cache holds 10000 predictions,
+         * which do not expire.
+         *
+         * @param model The algorithm whose predictions are cached.
+         */
+        public Builder(MachineLearningAlgorithm model) {
+            this.model = model;
+        }
+
+        /**
+         * Sets the max number of predictions in the cache.
+         *
+         * @param maxSize The max number of predictions.
+         */
+        public CachedModel.Builder setMaxSize(int maxSize) {
+            if (maxSize < 1) {
+                throw new InvalidParameterException("Max size must be at least 1");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a prediction stays in the cache after it was made.
+         *
+         * @param duration The duration, or 0 for predictions to never expire.
+         * @param unit     The unit of the duration.
+         */
+        public CachedModel.Builder setTimeToLive(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new InvalidParameterException("Time to live must be at least 0");
+            }
+            this.timeToLiveNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public CachedModel build() {
+            return new CachedModel(model, maxSize, timeToLiveNanos);
+        }
+    }
+}
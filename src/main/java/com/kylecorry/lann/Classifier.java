@@ -2,6 +2,9 @@ package com.kylecorry.lann;
 
 import com.kylecorry.matrix.Matrix;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by Kyle on 6/17/2017.
  */
@@ -23,4 +26,16 @@ public class Classifier<T> implements IClassifier<T> {
         final double confidence = prediction.get(labelPos, 0);
         return new Classification<>(label, confidence);
     }
+
+    @Override
+    public List<Classification<T>> classifyBatch(Matrix rows) {
+        final Matrix predictions = machineLearningAlgorithm.predictBatch(rows);
+        final List<Classification<T>> classifications = new ArrayList<>(rows.getNumRows());
+        for (int r = 0; r < predictions.getNumRows(); r++) {
+            final double[] prediction = predictions.getRow(r);
+            final int labelPos = NeuralNetworkPredictionAnalyzer.argMax(prediction);
+            classifications.add(new Classification<>(labels[labelPos], prediction[labelPos]));
+        }
+        return classifications;
+    }
 }
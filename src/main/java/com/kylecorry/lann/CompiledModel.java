@@ -0,0 +1,125 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable, trained feed-forward neural network which was compiled into a class of its own at runtime. The layer
+ * sizes, activation functions and weights are baked into a single straight-line method, so predicting a small network
+ * takes a fraction of the time of an {@link InferenceModel}. The prediction only uses local variables, so no locking
+ * or buffers are needed.
+ * <p>
+ * Compiling needs the system Java compiler and takes a few hundred milliseconds, so compile a model once and reuse it.
+ * When the network is too large for the JIT to compile the generated method, which is at about 800 non-zero weights,
+ * or the JVM has no compiler, such as a JRE, the model predicts with an {@link InferenceModel} instead; check
+ * {@link #isCompiled()} to see which was used.
+ */
+public class CompiledModel extends AbstractMachineLearningAlgorithm {
+
+    private final BiConsumer<double[], double[]> predictor;
+    private final boolean compiled;
+    private final int inputSize;
+    private final int outputSize;
+
+    /**
+     * Create a compiled model, the tensors must not be modified afterwards.
+     *
+     * @param weights   The weights of each layer, one row per output.
+     * @param biases    The bias of each layer, as a single column.
+     * @param functions The activation function of each layer.
+     */
+    CompiledModel(Tensor[] weights, Tensor[] biases, Activation[] functions) {
+        BiConsumer<double[], double[]> generated = ModelCompiler.compile(weights, biases, functions);
+        compiled = generated != null;
+        if (compiled) {
+            predictor = generated;
+        } else {
+            final InferenceModel fallback = new InferenceModel(weights, biases, functions);
+            predictor = new BiConsumer<double[], double[]>() {
+                @Override
+                public void accept(double[] input, double[] output) {
+                    fallback.predict(input, output);
+                }
+            };
+        }
+        inputSize = weights[0].cols;
+        outputSize = weights[weights.length - 1].rows;
+    }
+
+    /**
+     * Determine if the network was compiled into a class, or if the model fell back to an {@link InferenceModel}.
+     *
+     * @return True if the network was compiled.
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Make a prediction without allocating.
+     *
+     * @param input  The input of the model.
+     * @param output The array to write the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        if (input.length != inputSize) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        if (output.length != outputSize) {
+            throw new InvalidParameterException("Output size did not match the output size of the last layer");
+        }
+        predictor.accept(input, output);
+    }
+
+    public Matrix predict(double... input) {
+        double[] output = new double[outputSize];
+        predict(input, output);
+        Matrix prediction = new Matrix(output.length, 1);
+        for (int i = 0; i < output.length; i++)
+            prediction.set(i, 0, output[i]);
+        return prediction;
+    }
+
+    public Matrix predict(Matrix input) {
+        input = input.transpose();
+        if (input.getNumRows() != inputSize) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        double[] sample = new double[inputSize];
+        double[] output = new double[outputSize];
+        Matrix prediction = new Matrix(outputSize, input.getNumCols());
+        for (int col = 0; col < input.getNumCols(); col++) {
+            for (int row = 0; row < sample.length; row++)
+                sample[row] = input.get(row, col);
+            predictor.accept(sample, output);
+            for (int row = 0; row < output.length; row++)
+                prediction.set(row, col, output[row]);
+        }
+        return prediction;
+    }
+
+    public double train(Matrix[] input, Matrix[] output) {
+        throw new UnsupportedOperationException("A compiled model can not be trained, train the NN it was compiled from");
+    }
+
+    /**
+     * Get the input size of the first layer.
+     *
+     * @return The size of the input.
+     */
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Get the output size of the last layer.
+     *
+     * @return The size of the output.
+     */
+    public int getOutputSize() {
+        return outputSize;
+    }
+}
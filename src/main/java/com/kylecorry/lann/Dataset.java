@@ -0,0 +1,75 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+
+/**
+ * A source of training samples which is read one batch at a time, so it does not need to fit in memory. Each call to
+ * {@link #iterator()} starts a new pass over the data. A pass may hold a resource, such as an open file, so a pass
+ * which stops before the last batch must be closed with {@link #close(Iterator)}.
+ */
+public interface Dataset extends Iterable<Dataset.Batch> {
+
+    /**
+     * Close a pass over a data set, releasing the resource it holds, if any. This does nothing if the pass was already
+     * closed.
+     *
+     * @param batches The iterator of the pass.
+     */
+    static void close(Iterator<Batch> batches) {
+        if (batches instanceof CloseableIterator) {
+            ((CloseableIterator) batches).close();
+        }
+    }
+
+    /**
+     * A pass over a data set which holds a resource. It is closed once it runs out of batches.
+     */
+    interface CloseableIterator extends Iterator<Batch>, AutoCloseable {
+        @Override
+        void close();
+    }
+
+    class Batch {
+        private Matrix[] input;
+        private Matrix[] output;
+
+        /**
+         * A batch of samples.
+         *
+         * @param input  The input of each sample.
+         * @param output The desired output of each sample in the same order as the input.
+         */
+        public Batch(Matrix[] input, Matrix[] output) {
+            if (input.length != output.length) {
+                throw new InvalidParameterException("The number of inputs did not match the number of outputs");
+            }
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * A batch of a single sample.
+         *
+         * @param input  The input of the sample.
+         * @param output The desired output of the sample.
+         */
+        public Batch(Matrix input, Matrix output) {
+            this(new Matrix[]{input}, new Matrix[]{output});
+        }
+
+        public Matrix[] getInput() {
+            return input;
+        }
+
+        public Matrix[] getOutput() {
+            return output;
+        }
+
+        public int size() {
+            return input.length;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.schedule.LearningRateSchedule;
+
+import java.security.InvalidParameterException;
+
+/**
+ * The settings of a fit, such as when to stop and how to adjust the learning rate. Use {@link FitOptions.Builder} to
+ * create one.
+ */
+public class FitOptions {
+
+    private double maxIterations = 1000;
+    private double tolerance = 0.001;
+    private double validationSplit = 0;
+    private Dataset validationData;
+    private int patience = 0;
+    private double minDelta = 0;
+    private boolean restoreBestWeights = false;
+    private LearningRateSchedule learningRateSchedule;
+    private TrainingListener listener;
+
+    private FitOptions() {
+    }
+
+    /**
+     * Get the max number of training iterations to perform.
+     *
+     * @return The max number of iterations.
+     */
+    public double getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Get the training error at which the fit stops.
+     *
+     * @return The tolerance.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Get the fraction of the samples held out for validation.
+     *
+     * @return The validation split from [0, 1).
+     */
+    public double getValidationSplit() {
+        return validationSplit;
+    }
+
+    /**
+     * Get the data set the algorithm is validated on after each training iteration.
+     *
+     * @return The validation data, or null to use the validation split.
+     */
+    public Dataset getValidationData() {
+        return validationData;
+    }
+
+    /**
+     * Get the number of training iterations without improvement after which the fit stops.
+     *
+     * @return The patience, or 0 if the fit does not stop early.
+     */
+    public int getPatience() {
+        return patience;
+    }
+
+    /**
+     * Get the amount the monitored error must drop by to count as an improvement.
+     *
+     * @return The minimum improvement.
+     */
+    public double getMinDelta() {
+        return minDelta;
+    }
+
+    /**
+     * Determine if the weights of the best training iteration are restored when the fit ends.
+     *
+     * @return True if the best weights are restored.
+     */
+    public boolean isRestoreBestWeights() {
+        return restoreBestWeights;
+    }
+
+    /**
+     * Get the schedule which sets the learning rate of each training iteration.
+     *
+     * @return The schedule, or null to keep the learning rate constant.
+     */
+    public LearningRateSchedule getLearningRateSchedule() {
+        return learningRateSchedule;
+    }
+
+    /**
+     * Get the listener which receives the metrics of each training iteration.
+     *
+     * @return The listener, or null.
+     */
+    public TrainingListener getListener() {
+        return listener;
+    }
+
+    public static class Builder {
+
+        private FitOptions options;
+
+        /**
+         * A builder for fit options. By default a fit performs up to 1000 iterations and stops when the training
+         * error drops below 0.001.
+         */
+        public Builder() {
+            options = new FitOptions();
+        }
+
+        /**
+         * Sets the max number of training iterations to perform.
+         *
+         * @param maxIterations The max number of iterations.
+         */
+        public FitOptions.Builder setMaxIterations(double maxIterations) {
+            options.maxIterations = maxIterations;
+            return this;
+        }
+
+        /**
+         * Sets the training error at which the fit stops.
+         *
+         * @param tolerance The tolerance.
+         */
+        public FitOptions.Builder setTolerance(double tolerance) {
+            options.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Holds out the last fraction of the samples to validate on instead of training on them. Only array data
+         * can be split, a data set needs a separate validation set.
+         *
+         * @param validationSplit The fraction of the samples from [0, 1).
+         */
+        public FitOptions.Builder setValidationSplit(double validationSplit) {
+            if (validationSplit < 0 || validationSplit >= 1) {
+                throw new InvalidParameterException("Validation split must be from 0 to 1");
+            }
+            options.validationSplit = validationSplit;
+            return this;
+        }
+
+        /**
+         * Sets the data set the algorithm is validated on after each training iteration. Early stopping monitors
+         * the validation error when there is validation data, and the training error otherwise.
+         *
+         * @param validationData The validation data.
+         */
+        public FitOptions.Builder setValidationData(Dataset validationData) {
+            options.validationData = validationData;
+            return this;
+        }
+
+        /**
+         * Stops the fit after a number of training iterations without improvement.
+         *
+         * @param patience The number of iterations, or 0 to never stop early.
+         * @param minDelta The amount the monitored error must drop by to count as an improvement.
+         */
+        public FitOptions.Builder setEarlyStopping(int patience, double minDelta) {
+            if (patience < 0) {
+                throw new InvalidParameterException("Patience must be at least 0");
+            }
+            options.patience = patience;
+            options.minDelta = minDelta;
+            return this;
+        }
+
+        /**
+         * Sets if the weights of the training iteration with the lowest monitored error are restored when the fit
+         * ends.
+         *
+         * @param restoreBestWeights True to restore the best weights.
+         */
+        public FitOptions.Builder setRestoreBestWeights(boolean restoreBestWeights) {
+            options.restoreBestWeights = restoreBestWeights;
+            return this;
+        }
+
+        /**
+         * Sets the schedule which sets the learning rate of each training iteration. The learning rate is restored
+         * when the fit ends.
+         *
+         * @param learningRateSchedule The schedule.
+         */
+        public FitOptions.Builder setLearningRateSchedule(LearningRateSchedule learningRateSchedule) {
+            options.learningRateSchedule = learningRateSchedule;
+            return this;
+        }
+
+        /**
+         * Sets the listener which receives the metrics of each training iteration.
+         *
+         * @param listener The listener.
+         */
+        public FitOptions.Builder setListener(TrainingListener listener) {
+            options.listener = listener;
+            return this;
+        }
+
+        public FitOptions build() {
+            return options;
+        }
+    }
+}
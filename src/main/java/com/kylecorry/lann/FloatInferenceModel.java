@@ -0,0 +1,164 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.lann.activation.Softmax;
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+
+/**
+ * An immutable, trained feed-forward neural network which stores its weights, biases and activations as floats. This
+ * halves the memory used by the model compared to an {@link InferenceModel}, at the cost of rounding every weight to
+ * single precision. Each thread predicts using its own buffers, so no locking is needed.
+ */
+public class FloatInferenceModel extends AbstractMachineLearningAlgorithm {
+
+    private final float[][] weights;
+    private final float[][] biases;
+    private final int[] inputSizes;
+    private final Activation[] functions;
+    private final ThreadLocal<float[][]> buffers;
+
+    /**
+     * Create a float inference model by rounding the weights and biases of each layer.
+     *
+     * @param weights   The weights of each layer, one row per output.
+     * @param biases    The bias of each layer, as a single column.
+     * @param functions The activation function of each layer.
+     */
+    FloatInferenceModel(Tensor[] weights, Tensor[] biases, Activation[] functions) {
+        this.weights = new float[weights.length][];
+        this.biases = new float[biases.length][];
+        this.inputSizes = new int[weights.length];
+        this.functions = functions;
+        for (int l = 0; l < weights.length; l++) {
+            this.weights[l] = toFloats(weights[l]);
+            this.biases[l] = toFloats(biases[l]);
+            this.inputSizes[l] = weights[l].cols;
+        }
+        buffers = new ThreadLocal<float[][]>() {
+            @Override
+            protected float[][] initialValue() {
+                float[][] layerBuffers = new float[FloatInferenceModel.this.biases.length + 1][];
+                layerBuffers[0] = new float[getInputSize()];
+                for (int l = 0; l < FloatInferenceModel.this.biases.length; l++)
+                    layerBuffers[l + 1] = new float[FloatInferenceModel.this.biases[l].length];
+                return layerBuffers;
+            }
+        };
+    }
+
+    private static float[] toFloats(Tensor tensor) {
+        float[] values = new float[tensor.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (float) tensor.data[tensor.offset + i];
+        return values;
+    }
+
+    /**
+     * Make a prediction without allocating, using the buffers of the calling thread.
+     *
+     * @param input  The input of the model.
+     * @param output The array to copy the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        if (output.length != getOutputSize()) {
+            throw new InvalidParameterException("Output size did not match the output size of the last layer");
+        }
+        float[] prediction = feedForward(input);
+        for (int i = 0; i < output.length; i++)
+            output[i] = prediction[i];
+    }
+
+    public Matrix predict(double... input) {
+        float[] output = feedForward(input);
+        Matrix prediction = new Matrix(output.length, 1);
+        for (int i = 0; i < output.length; i++)
+            prediction.set(i, 0, output[i]);
+        return prediction;
+    }
+
+    public Matrix predict(Matrix input) {
+        input = input.transpose();
+        if (input.getNumRows() != getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        double[] sample = new double[getInputSize()];
+        Matrix prediction = new Matrix(getOutputSize(), input.getNumCols());
+        for (int col = 0; col < input.getNumCols(); col++) {
+            for (int row = 0; row < sample.length; row++)
+                sample[row] = input.get(row, col);
+            float[] output = feedForward(sample);
+            for (int row = 0; row < output.length; row++)
+                prediction.set(row, col, output[row]);
+        }
+        return prediction;
+    }
+
+    public double train(Matrix[] input, Matrix[] output) {
+        throw new UnsupportedOperationException("An inference model can not be trained, train the NN it was created from");
+    }
+
+    /**
+     * Get the input size of the first layer.
+     *
+     * @return The size of the input.
+     */
+    public int getInputSize() {
+        return inputSizes[0];
+    }
+
+    /**
+     * Get the output size of the last layer.
+     *
+     * @return The size of the output.
+     */
+    public int getOutputSize() {
+        return biases[biases.length - 1].length;
+    }
+
+    /**
+     * Run a single sample through every layer using the buffers of the calling thread.
+     *
+     * @param input The input to the model.
+     * @return The output buffer of the last layer, which is overwritten by the next call on this thread.
+     */
+    private float[] feedForward(double[] input) {
+        if (input.length != getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        float[][] layerBuffers = buffers.get();
+        for (int i = 0; i < input.length; i++)
+            layerBuffers[0][i] = (float) input[i];
+        for (int l = 0; l < weights.length; l++)
+            activate(l, layerBuffers[l], layerBuffers[l + 1]);
+        return layerBuffers[weights.length];
+    }
+
+    private void activate(int layer, float[] input, float[] output) {
+        float[] w = weights[layer];
+        float[] bias = biases[layer];
+        Activation function = functions[layer];
+        int cols = inputSizes[layer];
+        boolean softmax = function instanceof Softmax;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int row = 0; row < output.length; row++) {
+            int offset = row * cols;
+            float weighted = bias[row];
+            for (int col = 0; col < cols; col++)
+                weighted += w[offset + col] * input[col];
+            output[row] = softmax ? weighted : (float) function.activate(weighted);
+            max = Math.max(max, output[row]);
+        }
+        if (softmax) {
+            // Subtract the largest input so the exponential does not overflow
+            float sum = 0;
+            for (int row = 0; row < output.length; row++) {
+                output[row] = (float) Math.exp(output[row] - max);
+                sum += output[row];
+            }
+            for (int row = 0; row < output.length; row++)
+                output[row] /= sum;
+        }
+    }
+}
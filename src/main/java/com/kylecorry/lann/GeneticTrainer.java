@@ -5,14 +5,50 @@ import com.kylecorry.lann.activation.Sigmoid;
 import com.kylecorry.lann.activation.Softmax;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class GeneticTrainer {
+	/**
+	 * The number of genes competing for each parent of the next generation.
+	 */
+	private static final int TOURNAMENT_SIZE = 3;
+
 	private List<Gene> genes;
 	private double learningRate;
 	private double mutationRate;
 	private boolean keepBest;
+	private Crossover crossover = Crossover.NONE;
+	private ExecutorService executor = ForkJoinPool.commonPool();
+	private Random random = new Random();
+	private double[][] offspring;
 
+	/**
+	 * Train neural networks using a genetic algorithm.
+	 *
+	 * @param topology
+	 *            The topology of the networks in this format int[]{input,
+	 *            hidden1, hidden2, hiddenN, output}
+	 * @param numGenes
+	 *            The number of different genes per generation.
+	 * @param learningRate
+	 *            The standard deviation of a mutation of a weight.
+	 * @param mutation
+	 *            The percent chance of a weight mutating: a double from 0..1
+	 *            inclusive
+	 * @param classify
+	 *            A boolean flag specifying whether this is a classification
+	 *            problem.
+	 * @param keepBest
+	 *            A boolean flag specifying whether to keep the gene with the
+	 *            best fitness in the next generation without mutation.
+	 */
 	public GeneticTrainer(int[] topology, int numGenes, double learningRate, double mutation, boolean classify,
 			boolean keepBest) {
 		genes = new ArrayList<Gene>();
@@ -27,25 +63,276 @@ public class GeneticTrainer {
 					netBuilder.addLayer(topology[t - 1], topology[t], new Sigmoid());
 			}
 			genes.add(new GeneticTrainer.Gene(netBuilder.build(), 0.0));
-			this.learningRate = learningRate;
-			this.mutationRate = mutation;
-			this.keepBest = keepBest;
+		}
+		this.learningRate = learningRate;
+		this.mutationRate = mutation;
+		this.keepBest = keepBest;
+	}
+
+	/**
+	 * Set the executor which evaluates the fitness of the genes. Each gene is
+	 * evaluated as a separate task, so the executor should have a thread per
+	 * core. The common fork join pool is used by default.
+	 *
+	 * @param executor
+	 *            The executor.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set how the genomes of two parents are combined into a child.
+	 *
+	 * @param crossover
+	 *            The crossover, or NONE to copy a single parent.
+	 */
+	public void setCrossover(Crossover crossover) {
+		this.crossover = crossover;
+	}
+
+	/**
+	 * Set the source of randomness used for selection and mutation, so a run
+	 * can be repeated.
+	 *
+	 * @param random
+	 *            The random number generator.
+	 */
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * Get the genes of the current generation.
+	 *
+	 * @return The genes.
+	 */
+	public List<Gene> getGenes() {
+		return Collections.unmodifiableList(genes);
+	}
+
+	/**
+	 * Evaluate the fitness of every gene of the current generation in
+	 * parallel on the executor. The fitness function is called from several
+	 * threads at once, but never with the same network at the same time.
+	 *
+	 * @param fitness
+	 *            The fitness function.
+	 */
+	public void evaluate(final FitnessFunction fitness) {
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(genes.size());
+		for (final Gene gene : genes) {
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() {
+					return fitness.fitness(gene.network);
+				}
+			});
+		}
+		try {
+			List<Future<Double>> results = executor.invokeAll(tasks);
+			for (int i = 0; i < genes.size(); i++)
+				genes.get(i).fitness = results.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while evaluating the genes", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Create the next generation from the evaluated genes. Each parent is the
+	 * best of a random tournament of genes, and each weight of its child has
+	 * a chance of receiving Gaussian noise. The children are bred into
+	 * buffers which are reused by every generation, so evolving does not
+	 * allocate.
+	 *
+	 * @param max
+	 *            A boolean flag of whether to maximize or minimize the fitness.
+	 *            Max is true, min is false.
+	 */
+	public void evolve(boolean max) {
+		int genomeLength = genes.get(0).getGenome().length;
+		if (offspring == null)
+			offspring = new double[genes.size()][genomeLength];
+		int first = 0;
+		if (keepBest) {
+			System.arraycopy(best(max).getGenome(), 0, offspring[0], 0, genomeLength);
+			first = 1;
+		}
+		for (int i = first; i < genes.size(); i++) {
+			double[] parent = select(max).getGenome();
+			if (crossover == Crossover.NONE)
+				System.arraycopy(parent, 0, offspring[i], 0, genomeLength);
+			else
+				crossover.combine(parent, select(max).getGenome(), offspring[i], random);
+			mutate(offspring[i]);
+		}
+		// The parents are only overwritten once every child is bred
+		for (int i = 0; i < genes.size(); i++) {
+			System.arraycopy(offspring[i], 0, genes.get(i).getGenome(), 0, genomeLength);
+			genes.get(i).fitness = 0.0;
+			genes.get(i).network.markModified();
+		}
+	}
+
+	/**
+	 * Add Gaussian noise to each weight of a genome with the mutation
+	 * probability.
+	 *
+	 * @param genome
+	 *            The genome, which is mutated in place.
+	 */
+	private void mutate(double[] genome) {
+		if (mutationRate <= 0)
+			return;
+		if (mutationRate >= 1) {
+			for (int w = 0; w < genome.length; w++)
+				genome[w] += random.nextGaussian() * learningRate;
+			return;
+		}
+		// Skip straight to the next mutated weight, the gaps between them are geometrically distributed
+		double logKeep = Math.log(1 - mutationRate);
+		for (long w = skip(logKeep); w < genome.length; w += 1 + skip(logKeep))
+			genome[(int) w] += random.nextGaussian() * learningRate;
+	}
+
+	private long skip(double logKeep) {
+		return (long) (Math.log(1 - random.nextDouble()) / logKeep);
+	}
+
+	/**
+	 * Evaluate and evolve the genes for a number of generations. The last
+	 * generation is evaluated but not evolved, so the best gene can be read
+	 * afterwards.
+	 *
+	 * @param fitness
+	 *            The fitness function.
+	 * @param generations
+	 *            The number of generations to evaluate.
+	 * @param max
+	 *            A boolean flag of whether to maximize or minimize the fitness.
+	 *            Max is true, min is false.
+	 * @return The best gene of the last generation.
+	 */
+	public Gene train(FitnessFunction fitness, int generations, boolean max) {
+		for (int g = 0; g < generations; g++) {
+			if (g > 0)
+				evolve(max);
+			evaluate(fitness);
+		}
+		return best(max);
+	}
+
+	/**
+	 * Get the gene with the best fitness.
+	 *
+	 * @param max
+	 *            A boolean flag of whether a higher fitness is better than a
+	 *            lower fitness. true for max, false for min.
+	 * @return The best gene.
+	 */
+	public Gene best(boolean max) {
+		Gene best = genes.get(0);
+		for (Gene gene : genes)
+			if (isBetter(gene, best, max))
+				best = gene;
+		return best;
+	}
+
+	private Gene select(boolean max) {
+		Gene best = genes.get(random.nextInt(genes.size()));
+		for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+			Gene gene = genes.get(random.nextInt(genes.size()));
+			if (isBetter(gene, best, max))
+				best = gene;
+		}
+		return best;
+	}
+
+	private static boolean isBetter(Gene gene, Gene other, boolean max) {
+		return max ? gene.fitness > other.fitness : gene.fitness < other.fitness;
+	}
+
+	/**
+	 * Scores how well a neural network performs, such as its accuracy or the
+	 * reward it earns in a simulation.
+	 */
+	public interface FitnessFunction {
+		/**
+		 * Calculate the fitness of a neural network. This is called from
+		 * several threads at once, so it must not modify shared state.
+		 *
+		 * @param network
+		 *            The neural network being evaluated.
+		 * @return The fitness of the neural network.
+		 */
+		double fitness(NN network);
+	}
+
+	/**
+	 * The ways to combine the genomes of two parents into a child.
+	 */
+	public enum Crossover {
+		/**
+		 * Copy the first parent.
+		 */
+		NONE,
+		/**
+		 * Take each weight from either parent with equal chance.
+		 */
+		UNIFORM,
+		/**
+		 * Take the weights before a random point from the first parent, and
+		 * the rest from the second parent.
+		 */
+		ONE_POINT;
+
+		void combine(double[] first, double[] second, double[] child, Random random) {
+			switch (this) {
+			case UNIFORM:
+				for (int w = 0; w < child.length; w++)
+					child[w] = random.nextBoolean() ? first[w] : second[w];
+				break;
+			case ONE_POINT:
+				int point = random.nextInt(child.length + 1);
+				System.arraycopy(first, 0, child, 0, point);
+				System.arraycopy(second, point, child, point, child.length - point);
+				break;
+			default:
+				System.arraycopy(first, 0, child, 0, child.length);
+			}
 		}
 	}
 
 	public static class Gene {
 		private NN network;
+		private double[] genome;
 		private double fitness;
 
 		public Gene(NN nn, double fit) {
 			fitness = fit;
 			network = nn;
+			genome = nn.getGenome();
 		}
 
 		public NN getNeuralNetwork() {
 			return network;
 		}
 
+		/**
+		 * Get every weight and bias of the network in one array. The layers of
+		 * the network view this array, so changes to it change the network.
+		 *
+		 * @return The genome, not a copy.
+		 */
+		public double[] getGenome() {
+			return genome;
+		}
+
 		public double getFitness() {
 			return fitness;
 		}
@@ -2,6 +2,8 @@ package com.kylecorry.lann;
 
 import com.kylecorry.matrix.Matrix;
 
+import java.util.List;
+
 /**
  * Created by Kyle on 6/17/2017.
  */
@@ -15,6 +17,14 @@ public interface IClassifier<T> {
      */
     Classification<T> classify(Matrix input);
 
+    /**
+     * Classify each row of the input.
+     *
+     * @param rows The input of the machine learning algorithm, with one sample per row.
+     * @return The classifications in the same order as the rows.
+     */
+    List<Classification<T>> classifyBatch(Matrix rows);
+
     class Classification<T> {
         private T classification;
         private double confidence;
@@ -0,0 +1,174 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+
+/**
+ * An immutable, trained feed-forward neural network which can only be used for prediction. The weights are shared by
+ * every thread, and each thread predicts using its own buffers, or its own {@link InferenceSession}, so no locking is
+ * needed. Layers whose weights were mostly pruned are stored in compressed sparse row format, so predicting skips their
+ * zero weights.
+ */
+public class InferenceModel extends AbstractMachineLearningAlgorithm {
+
+    /**
+     * The fraction of non-zero weights below which a layer is stored sparse by default. Below it, skipping the zeros
+     * beats the contiguous dense product even with SIMD kernels.
+     */
+    public static final double DEFAULT_SPARSE_DENSITY = 0.25;
+
+    private final Tensor[] weights;
+    private final SparseTensor[] sparseWeights;
+    private final Tensor[] biases;
+    private final Activation[] functions;
+    private final ThreadLocal<double[][]> buffers;
+
+    /**
+     * Create an inference model, the tensors are not copied and must not be modified afterwards.
+     *
+     * @param weights   The weights of each layer, one row per output.
+     * @param biases    The bias of each layer, as a single column.
+     * @param functions The activation function of each layer.
+     */
+    InferenceModel(Tensor[] weights, Tensor[] biases, Activation[] functions) {
+        this(weights, biases, functions, 0);
+    }
+
+    /**
+     * Create an inference model which stores the weights of each layer sparse if few enough of them are non-zero. The
+     * tensors are not copied and must not be modified afterwards.
+     *
+     * @param weights          The weights of each layer, one row per output.
+     * @param biases           The bias of each layer, as a single column.
+     * @param functions        The activation function of each layer.
+     * @param maxSparseDensity The fraction of non-zero weights below which a layer is stored sparse.
+     */
+    InferenceModel(Tensor[] weights, Tensor[] biases, Activation[] functions, double maxSparseDensity) {
+        this.weights = weights.clone();
+        this.sparseWeights = new SparseTensor[weights.length];
+        for (int l = 0; l < weights.length; l++) {
+            if (SparseTensor.density(weights[l]) < maxSparseDensity) {
+                sparseWeights[l] = new SparseTensor(weights[l]);
+                this.weights[l] = null;
+            }
+        }
+        this.biases = biases;
+        this.functions = functions;
+        // The buffers of each thread must not reference the model, or the thread would keep the model alive
+        buffers = new ThreadLocal<double[][]>() {
+            @Override
+            protected double[][] initialValue() {
+                return InferenceSession.createBuffers(InferenceModel.this);
+            }
+        };
+    }
+
+    /**
+     * Create a session which holds the buffers needed to predict. A session must only be used by one thread at a time.
+     *
+     * @return A new inference session.
+     */
+    public InferenceSession newSession() {
+        return new InferenceSession(this);
+    }
+
+    /**
+     * Make a prediction without allocating, using the buffers of the calling thread.
+     *
+     * @param input  The input of the model.
+     * @param output The array to copy the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        InferenceSession.predict(this, buffers.get(), input, output);
+    }
+
+    public Matrix predict(double... input) {
+        return InferenceSession.predict(this, buffers.get(), input);
+    }
+
+    public Matrix predict(Matrix input) {
+        input = input.transpose();
+        if (input.getNumRows() != getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        double[][] threadBuffers = buffers.get();
+        double[] sample = new double[getInputSize()];
+        double[] output = new double[getOutputSize()];
+        Matrix prediction = new Matrix(getOutputSize(), input.getNumCols());
+        for (int col = 0; col < input.getNumCols(); col++) {
+            for (int row = 0; row < sample.length; row++)
+                sample[row] = input.get(row, col);
+            InferenceSession.predict(this, threadBuffers, sample, output);
+            for (int row = 0; row < output.length; row++)
+                prediction.set(row, col, output[row]);
+        }
+        return prediction;
+    }
+
+    public double train(Matrix[] input, Matrix[] output) {
+        throw new UnsupportedOperationException("An inference model can not be trained, train the NN it was created from");
+    }
+
+    /**
+     * Get the number of layers in the model.
+     *
+     * @return The number of layers.
+     */
+    int size() {
+        return weights.length;
+    }
+
+    /**
+     * Determine if the weights of a layer are stored sparse.
+     *
+     * @param layer The index of the layer.
+     * @return True if the layer is sparse.
+     */
+    boolean isSparse(int layer) {
+        return sparseWeights[layer] != null;
+    }
+
+    /**
+     * Get the input size of the first layer.
+     *
+     * @return The size of the input.
+     */
+    public int getInputSize() {
+        return isSparse(0) ? sparseWeights[0].cols : weights[0].cols;
+    }
+
+    /**
+     * Get the output size of the last layer.
+     *
+     * @return The size of the output.
+     */
+    public int getOutputSize() {
+        return getOutputSize(weights.length - 1);
+    }
+
+    /**
+     * Get the output size of a layer.
+     *
+     * @param layer The index of the layer.
+     * @return The size of the output.
+     */
+    int getOutputSize(int layer) {
+        return biases[layer].rows;
+    }
+
+    /**
+     * Process a single sample through a layer.
+     *
+     * @param layer  The index of the layer.
+     * @param input  The input to the layer.
+     * @param output The array to write the output of the layer into.
+     * @return The output array.
+     */
+    double[] activate(int layer, double[] input, double[] output) {
+        if (isSparse(layer))
+            return NN.Layer.activate(sparseWeights[layer], biases[layer], functions[layer], input, output);
+        return NN.Layer.activate(weights[layer], biases[layer], functions[layer], input, output);
+    }
+}
@@ -0,0 +1,87 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+
+/**
+ * The scratch buffers used to predict with an {@link InferenceModel}. A session is not thread safe, so each thread
+ * should create its own, while all of them share the weights of the model.
+ */
+public class InferenceSession {
+
+    private final InferenceModel model;
+    private final double[][] buffers;
+
+    /**
+     * Create a session for a model.
+     *
+     * @param model The model to predict with.
+     */
+    InferenceSession(InferenceModel model) {
+        this.model = model;
+        buffers = createBuffers(model);
+    }
+
+    /**
+     * Create the output buffer of every layer of a model. The buffers do not reference the model, so a model is not
+     * kept alive by the buffers a thread holds for it.
+     *
+     * @param model The model.
+     * @return The buffers.
+     */
+    static double[][] createBuffers(InferenceModel model) {
+        double[][] buffers = new double[model.size()][];
+        for (int l = 0; l < buffers.length; l++) {
+            buffers[l] = new double[model.getOutputSize(l)];
+        }
+        return buffers;
+    }
+
+    /**
+     * Make a prediction without allocating.
+     *
+     * @param input  The input of the model.
+     * @param output The array to copy the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        predict(model, buffers, input, output);
+    }
+
+    /**
+     * Make a prediction given an input.
+     *
+     * @param input The input of the model.
+     * @return The prediction, as a single column.
+     */
+    public Matrix predict(double... input) {
+        return predict(model, buffers, input);
+    }
+
+    static void predict(InferenceModel model, double[][] buffers, double[] input, double[] output) {
+        if (output.length != model.getOutputSize()) {
+            throw new InvalidParameterException("Output size did not match the output size of the last layer");
+        }
+        System.arraycopy(feedForward(model, buffers, input), 0, output, 0, output.length);
+    }
+
+    static Matrix predict(InferenceModel model, double[][] buffers, double[] input) {
+        double[] output = feedForward(model, buffers, input);
+        Matrix prediction = new Matrix(output.length, 1);
+        for (int i = 0; i < output.length; i++) {
+            prediction.set(i, 0, output[i]);
+        }
+        return prediction;
+    }
+
+    private static double[] feedForward(InferenceModel model, double[][] buffers, double[] input) {
+        if (input.length != model.getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        double[] modInput = input;
+        for (int l = 0; l < buffers.length; l++) {
+            modInput = model.activate(l, modInput, buffers[l]);
+        }
+        return modInput;
+    }
+}
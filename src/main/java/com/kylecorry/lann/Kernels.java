@@ -0,0 +1,93 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+
+/**
+ * The innermost loops of the tensor operations and activations. This class is the scalar implementation, which runs
+ * on every JVM. When the optional vector backend is on the classpath and the jdk.incubator.vector module is present,
+ * {@link #INSTANCE} is replaced by a subclass which uses explicit SIMD instructions instead.
+ */
+class Kernels {
+
+    /**
+     * The system property which selects the kernels, set it to "scalar" to disable the vector backend.
+     */
+    static final String PROPERTY = "lann.kernels";
+
+    private static final String VECTOR_KERNELS = "com.kylecorry.lann.VectorKernels";
+
+    static final Kernels INSTANCE = load();
+
+    Kernels() {
+    }
+
+    /**
+     * Load the vector kernels if they are available, otherwise fall back to the scalar kernels. The vector kernels
+     * are missing on Java 8, when the backend was not compiled, or when the incubator module was not added.
+     *
+     * @return The kernels.
+     */
+    private static Kernels load() {
+        if (!"scalar".equals(System.getProperty(PROPERTY))) {
+            try {
+                return (Kernels) Class.forName(VECTOR_KERNELS).newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall back to the scalar kernels
+            }
+        }
+        return new Kernels();
+    }
+
+    /**
+     * Get the name of the kernels, which is reported by the benchmarks.
+     *
+     * @return The name of the kernels.
+     */
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Compute the dot product of two vectors.
+     *
+     * @param a       The array holding the first vector.
+     * @param aOffset The index of the first value of the first vector.
+     * @param b       The array holding the second vector.
+     * @param bOffset The index of the first value of the second vector.
+     * @param n       The length of the vectors.
+     * @return The dot product.
+     */
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += a[aOffset + i] * b[bOffset + i];
+        return sum;
+    }
+
+    /**
+     * Compute y += alpha * x.
+     *
+     * @param alpha   The scale of x.
+     * @param x       The array holding the vector x.
+     * @param xOffset The index of the first value of x.
+     * @param y       The array holding the vector y, which is overwritten.
+     * @param yOffset The index of the first value of y.
+     * @param n       The length of the vectors.
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n) {
+        for (int i = 0; i < n; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    /**
+     * Apply an activation function to the first n values of an array.
+     *
+     * @param function The activation function.
+     * @param in       The inputs to the function.
+     * @param out      The array to write the results into, which may be the input array.
+     * @param n        The number of values.
+     */
+    void activate(Activation function, double[] in, double[] out, int n) {
+        function.activate(in, out, n);
+    }
+}
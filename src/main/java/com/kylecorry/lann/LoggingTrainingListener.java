@@ -0,0 +1,36 @@
+package com.kylecorry.lann;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the metrics of training iterations.
+ */
+public class LoggingTrainingListener implements TrainingListener {
+
+    private PrintStream out;
+    private int interval;
+
+    /**
+     * Print the metrics of every training iteration to standard out.
+     */
+    public LoggingTrainingListener() {
+        this(System.out, 1);
+    }
+
+    /**
+     * Print the metrics of some training iterations.
+     *
+     * @param out      The stream to print to.
+     * @param interval The number of iterations between each printed iteration.
+     */
+    public LoggingTrainingListener(PrintStream out, int interval) {
+        this.out = out;
+        this.interval = Math.max(interval, 1);
+    }
+
+    @Override
+    public void onEpochEnd(Epoch epoch) {
+        if (epoch.getIndex() % interval == 0)
+            out.println(epoch);
+    }
+}
@@ -2,6 +2,8 @@ package com.kylecorry.lann;
 
 import com.kylecorry.matrix.Matrix;
 
+import java.util.Iterator;
+
 public interface MachineLearningAlgorithm {
 
     /**
@@ -20,6 +22,37 @@ public interface MachineLearningAlgorithm {
      */
     Matrix predict(double... input);
 
+    /**
+     * Make a prediction for each row of the input.
+     *
+     * @param rows The input of the machine learning algorithm, with one sample per row.
+     * @return The predictions, with one prediction per row in the same order as the input.
+     */
+    default Matrix predictBatch(Matrix rows) {
+        Matrix predictions = new Matrix(0, 0);
+        for (int r = 0; r < rows.getNumRows(); r++) {
+            Matrix prediction = predict(rows.getRow(r));
+            if (r == 0)
+                predictions = new Matrix(rows.getNumRows(), prediction.getNumRows());
+            for (int c = 0; c < prediction.getNumRows(); c++)
+                predictions.set(r, c, prediction.get(c, 0));
+        }
+        return predictions;
+    }
+
+    /**
+     * Make a prediction for each input.
+     *
+     * @param input The inputs of the machine learning algorithm.
+     * @return The predictions in the same order as the input.
+     */
+    default Matrix[] predict(Matrix[] input) {
+        Matrix[] predictions = new Matrix[input.length];
+        for (int i = 0; i < input.length; i++)
+            predictions[i] = predict(input[i]);
+        return predictions;
+    }
+
     /**
      * Train the machine learning algorithm to better predict an output given an input. This performs a single iteration.
      *
@@ -29,6 +62,26 @@ public interface MachineLearningAlgorithm {
      */
     double train(Matrix[] input, Matrix[] output);
 
+    /**
+     * Train the machine learning algorithm on every batch of a data set. This performs a single iteration.
+     *
+     * @param data The data set to train on.
+     * @return The error of the training iteration.
+     */
+    default double train(Dataset data) {
+        double error = 0;
+        Iterator<Dataset.Batch> batches = data.iterator();
+        try {
+            while (batches.hasNext()) {
+                Dataset.Batch batch = batches.next();
+                error += train(batch.getInput(), batch.getOutput());
+            }
+        } finally {
+            Dataset.close(batches);
+        }
+        return error;
+    }
+
     /**
      * Fit the machine learning algorithm to an input and output data set.
      *
@@ -50,6 +103,22 @@ public interface MachineLearningAlgorithm {
      */
     double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance);
 
+    /**
+     * Fit the machine learning algorithm to an input and output data set, reporting the progress of each training
+     * iteration.
+     *
+     * @param input         The input of the algorithm.
+     * @param output        The desired output of the algorithm in the same order as the input.
+     * @param maxIterations The max number of training iterations to perform.
+     * @param tolerance     The error in which to stop the training iterations.
+     * @param listener      Receives the metrics of each training iteration.
+     * @return The error of the last training iteration.
+     */
+    default double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance,
+                       TrainingListener listener) {
+        return fit(new ArrayDataset(input, output), maxIterations, tolerance, listener);
+    }
+
     /**
      * Fit the machine learning algorithm to an input and output data set.
      *
@@ -59,6 +128,121 @@ public interface MachineLearningAlgorithm {
      */
     double fit(Matrix[] input, Matrix[] output);
 
+    /**
+     * Fit the machine learning algorithm to a data set which is read one batch at a time.
+     *
+     * @param data          The data set to train on.
+     * @param maxIterations The max number of passes over the data set to perform.
+     * @param tolerance     The error in which to stop the training iterations.
+     * @return The error of the last training iteration.
+     */
+    default double fit(Dataset data, double maxIterations, double tolerance) {
+        return fit(data, maxIterations, tolerance, null);
+    }
+
+    /**
+     * Fit the machine learning algorithm to a data set, reporting the progress of each training iteration.
+     *
+     * @param data          The data set to train on.
+     * @param maxIterations The max number of passes over the data set to perform.
+     * @param tolerance     The error in which to stop the training iterations.
+     * @param listener      Receives the metrics of each training iteration.
+     * @return The error of the last training iteration.
+     */
+    default double fit(Dataset data, double maxIterations, double tolerance, TrainingListener listener) {
+        double error = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < maxIterations; i++) {
+            long start = System.nanoTime();
+            int samples = 0;
+            error = 0;
+            Iterator<Dataset.Batch> batches = data.iterator();
+            try {
+                while (batches.hasNext()) {
+                    Dataset.Batch batch = batches.next();
+                    error += train(batch.getInput(), batch.getOutput());
+                    samples += batch.size();
+                }
+            } finally {
+                Dataset.close(batches);
+            }
+            if (listener != null)
+                listener.onEpochEnd(new TrainingListener.Epoch(i, error, System.nanoTime() - start, samples,
+                        Double.NaN, Double.NaN));
+            if (error <= tolerance)
+                break;
+        }
+        return error;
+    }
+
+    /**
+     * Fit the machine learning algorithm to a data set which is read one batch at a time.
+     *
+     * @param data The data set to train on.
+     * @return The error of the last training iteration.
+     */
+    default double fit(Dataset data) {
+        return fit(data, 1000, 0.001);
+    }
+
+    /**
+     * Fit the machine learning algorithm to an input and output data set, with validation, early stopping or a
+     * learning rate schedule. By default only the max iterations, tolerance and listener are supported.
+     *
+     * @param input   The input of the algorithm.
+     * @param output  The desired output of the algorithm in the same order as the input.
+     * @return The training error of the last training iteration, or of the iteration whose weights were restored.
+     * @return The error of the last training iteration.
+     */
+    default double fit(Matrix[] input, Matrix[] output, FitOptions options) {
+        return fit(new ArrayDataset(input, output), options);
+    }
+
+    /**
+     * Fit the machine learning algorithm to a data set, with validation, early stopping or a learning rate schedule.
+     * A validation split can not be taken from a data set, so it needs validation data instead. By default only the
+     * max iterations, tolerance and listener are supported.
+     *
+     * @param data    The data set to train on.
+     * @param options The settings of the fit.
+     * @return The training error of the last training iteration, or of the iteration whose weights were restored.
+     */
+    default double fit(Dataset data, FitOptions options) {
+        if (options.getValidationSplit() != 0 || options.getValidationData() != null || options.getPatience() > 0
+                || options.isRestoreBestWeights() || options.getLearningRateSchedule() != null) {
+            throw new UnsupportedOperationException(
+                    "This algorithm only supports the max iterations, tolerance and listener of the fit options");
+        }
+        return fit(data, options.getMaxIterations(), options.getTolerance(), options.getListener());
+    }
+
+    /**
+     * Calculate the error of the machine learning algorithm on a data set without training on it.
+     *
+     * @param data The data set to evaluate.
+     * @return The error summed over every sample.
+     */
+    default double evaluate(Dataset data) {
+        double error = 0;
+        Iterator<Dataset.Batch> batches = data.iterator();
+        try {
+            while (batches.hasNext()) {
+                Dataset.Batch batch = batches.next();
+                Matrix[] predictions = predict(batch.getInput());
+                for (int i = 0; i < predictions.length; i++) {
+                    Matrix expected = batch.getOutput()[i];
+                    for (int j = 0; j < predictions[i].getNumRows(); j++) {
+                        double difference = predictions[i].get(j, 0)
+                                - expected.get(j / expected.getNumCols(), j % expected.getNumCols());
+                        error += 0.5 * difference * difference;
+                    }
+                }
+            }
+        } finally {
+            Dataset.close(batches);
+        }
+        return error;
+    }
+
     /**
      * Calculates the percent of predictions that are correct.
      *
@@ -0,0 +1,318 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.lann.activation.LeakyReLU;
+import com.kylecorry.lann.activation.Linear;
+import com.kylecorry.lann.activation.ReLU;
+import com.kylecorry.lann.activation.Sigmoid;
+import com.kylecorry.lann.activation.Softmax;
+import com.kylecorry.lann.activation.Softplus;
+import com.kylecorry.lann.activation.Tanh;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Generates the Java source of a class which predicts with one trained network, compiles it with the system Java
+ * compiler and loads it. Every weight and bias is a literal and every neuron is a local variable, so the prediction is
+ * a single straight-line method without loops, arrays or virtual calls which the JIT compiles as a whole.
+ */
+final class ModelCompiler {
+
+    /**
+     * The most bytes of bytecode the generated method may have. HotSpot does not JIT compile larger methods, so they
+     * would run slower than an {@link InferenceModel}.
+     */
+    static final int MAX_CODE_SIZE = 8000;
+
+    private static final String PACKAGE = "com.kylecorry.lann.generated";
+
+    /**
+     * The number of terms summed by each statement, which keeps the expression trees shallow for javac.
+     */
+    private static final int TERMS_PER_STATEMENT = 8;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private ModelCompiler() {
+    }
+
+    /**
+     * Compile a network into a class.
+     *
+     * @param weights   The weights of each layer, one row per output.
+     * @param biases    The bias of each layer, as a single column.
+     * @param functions The activation function of each layer.
+     * @return The predict method of the compiled class, which takes the input and the array to write the output into,
+     * or null if the network is too large or no compiler is available, such as on a JRE.
+     */
+    static BiConsumer<double[], double[]> compile(Tensor[] weights, Tensor[] biases, Activation[] functions) {
+        if (estimateCodeSize(weights) > MAX_CODE_SIZE) {
+            return null;
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+        String simpleName = "CompiledNetwork" + classCount.incrementAndGet();
+        String className = PACKAGE + "." + simpleName;
+        String source = generateSource(simpleName, weights, biases, functions);
+        try {
+            byte[] bytes = compile(compiler, className, source);
+            if (bytes == null) {
+                return null;
+            }
+            Class<?> compiled = new GeneratedClassLoader(ModelCompiler.class.getClassLoader()).define(className, bytes);
+            @SuppressWarnings("unchecked")
+            BiConsumer<double[], double[]> predict = (BiConsumer<double[], double[]>) compiled
+                    .getConstructor(Activation[].class).newInstance((Object) functions.clone());
+            return predict;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Estimate the size of the bytecode of the generated method, from measurements of generated networks: a non-zero
+     * weight costs about 8 bytes, a neuron about 25 bytes and an input about 6 bytes.
+     *
+     * @param weights The weights of each layer, one row per output.
+     * @return The estimated number of bytes.
+     */
+    private static int estimateCodeSize(Tensor[] weights) {
+        int size = 6 * weights[0].cols;
+        for (Tensor w : weights) {
+            size += 25 * w.rows;
+            for (int i = w.offset; i < w.offset + w.size(); i++)
+                if (w.data[i] != 0)
+                    size += 8;
+        }
+        return size;
+    }
+
+    /**
+     * Generate the source of a class which implements BiConsumer&lt;double[], double[]&gt;. The value of neuron i of
+     * layer l is the local v{l}_{i}, where layer 0 is the input. Zero weights are left out, so pruned networks compile
+     * to less code.
+     *
+     * @param simpleName The name of the class, without the package.
+     * @param weights    The weights of each layer, one row per output.
+     * @param biases     The bias of each layer, as a single column.
+     * @param functions  The activation function of each layer.
+     * @return The source.
+     */
+    static String generateSource(String simpleName, Tensor[] weights, Tensor[] biases, Activation[] functions) {
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(PACKAGE).append(";\n\n");
+        src.append("public final class ").append(simpleName)
+                .append(" implements java.util.function.BiConsumer<double[], double[]> {\n");
+        for (int l = 0; l < functions.length; l++)
+            if (isCalled(functions[l]))
+                src.append("    private final com.kylecorry.lann.activation.Activation f").append(l).append(";\n");
+        src.append("\n    public ").append(simpleName).append("(com.kylecorry.lann.activation.Activation[] f) {\n");
+        for (int l = 0; l < functions.length; l++)
+            if (isCalled(functions[l]))
+                src.append("        f").append(l).append(" = f[").append(l).append("];\n");
+        src.append("    }\n\n");
+        src.append("    public void accept(double[] in, double[] out) {\n");
+        for (int c = 0; c < weights[0].cols; c++)
+            src.append("        double v0_").append(c).append(" = in[").append(c).append("];\n");
+        for (int l = 0; l < weights.length; l++) {
+            Tensor w = weights[l];
+            for (int r = 0; r < w.rows; r++) {
+                String neuron = "v" + (l + 1) + "_" + r;
+                src.append("        double ").append(neuron).append(" = 0;\n");
+                int terms = 0;
+                for (int c = 0; c < w.cols; c++) {
+                    double weight = w.get(r, c);
+                    if (weight == 0)
+                        continue;
+                    if (terms % TERMS_PER_STATEMENT == 0)
+                        src.append("        ").append(neuron).append(" = ").append(neuron);
+                    src.append(" + ").append(literal(weight)).append(" * v").append(l).append('_').append(c);
+                    if (++terms % TERMS_PER_STATEMENT == 0)
+                        src.append(";\n");
+                }
+                if (terms % TERMS_PER_STATEMENT != 0)
+                    src.append(";\n");
+                src.append("        ").append(neuron).append(" += ").append(literal(biases[l].get(r, 0)))
+                        .append(";\n");
+            }
+            appendActivation(src, functions[l], l, w.rows);
+        }
+        int last = weights.length;
+        for (int r = 0; r < weights[last - 1].rows; r++)
+            src.append("        out[").append(r).append("] = v").append(last).append('_').append(r).append(";\n");
+        src.append("    }\n}\n");
+        return src.toString();
+    }
+
+    private static void appendActivation(StringBuilder src, Activation function, int layer, int size) {
+        String prefix = "v" + (layer + 1) + "_";
+        if (function.getClass() == Softmax.class) {
+            // The same steps as Softmax.activate, so the largest input is subtracted before the exponential
+            String max = "max" + (layer + 1);
+            String sum = "sum" + (layer + 1);
+            src.append("        double ").append(max).append(" = Double.NEGATIVE_INFINITY;\n");
+            for (int r = 0; r < size; r++)
+                src.append("        ").append(max).append(" = Math.max(").append(max).append(", ").append(prefix)
+                        .append(r).append(");\n");
+            src.append("        double ").append(sum).append(" = 0;\n");
+            for (int r = 0; r < size; r++) {
+                src.append("        ").append(prefix).append(r).append(" = Math.exp(").append(prefix).append(r)
+                        .append(" - ").append(max).append(");\n");
+                src.append("        ").append(sum).append(" += ").append(prefix).append(r).append(";\n");
+            }
+            src.append("        ").append(sum).append(" = 1 / ").append(sum).append(";\n");
+            for (int r = 0; r < size; r++)
+                src.append("        ").append(prefix).append(r).append(" *= ").append(sum).append(";\n");
+            return;
+        }
+        for (int r = 0; r < size; r++) {
+            String neuron = prefix + r;
+            String expression = inline(function, neuron);
+            if (expression == null)
+                expression = "f" + layer + ".activate(" + neuron + ")";
+            src.append("        ").append(neuron).append(" = ").append(expression).append(";\n");
+        }
+    }
+
+    /**
+     * Get the expression which applies a built-in activation function, the same way as its activate method. Only the
+     * exact classes are inlined, since a subclass may override the function.
+     *
+     * @param function The activation function.
+     * @param x        The variable holding the input.
+     * @return The expression, or null if the function has to be called.
+     */
+    private static String inline(Activation function, String x) {
+        Class<?> type = function.getClass();
+        if (type == Linear.class)
+            return x;
+        if (type == Sigmoid.class)
+            return "1d / (1 + Math.exp(-" + x + "))";
+        if (type == Tanh.class)
+            return "Math.tanh(" + x + ")";
+        if (type == ReLU.class)
+            return "Math.max(0, " + x + ")";
+        if (type == LeakyReLU.class)
+            return x + " > 0 ? " + x + " : 0.01 * " + x;
+        if (type == Softplus.class)
+            return "Math.log(1 + Math.exp(" + x + "))";
+        return null;
+    }
+
+    private static boolean isCalled(Activation function) {
+        return function.getClass() != Softmax.class && inline(function, "x") == null;
+    }
+
+    private static String literal(double value) {
+        if (Double.isNaN(value))
+            return "Double.NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        // Double.toString prints the shortest decimal which parses back to the same double
+        String literal = Double.toString(value);
+        return value < 0 ? "(" + literal + ")" : literal;
+    }
+
+    /**
+     * Compile a single class in memory.
+     *
+     * @param compiler  The compiler.
+     * @param className The fully qualified name of the class.
+     * @param source    The source of the class.
+     * @return The bytecode of the class, or null if it did not compile.
+     * @throws IOException If the file manager could not be closed.
+     */
+    private static byte[] compile(JavaCompiler compiler, final String className, final String source)
+            throws IOException {
+        final Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                        kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        output.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') +
+                JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", getClassPath(), "-g:none", "-proc:none", "-nowarn");
+        try {
+            boolean compiled = compiler.getTask(null, fileManager, new DiagnosticCollector<JavaFileObject>(), options,
+                    null, Collections.singletonList(file)).call();
+            ByteArrayOutputStream bytes = output.get(className);
+            return compiled && bytes != null ? bytes.toByteArray() : null;
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    /**
+     * Get the class path the generated class compiles against, which must contain the activation functions even
+     * when the library was not loaded from the application class path.
+     *
+     * @return The class path.
+     */
+    private static String getClassPath() {
+        String classPath = System.getProperty("java.class.path", "");
+        try {
+            CodeSource library = Activation.class.getProtectionDomain().getCodeSource();
+            if (library != null) {
+                classPath += File.pathSeparator + new File(library.getLocation().toURI()).getPath();
+            }
+        } catch (SecurityException | URISyntaxException | IllegalArgumentException e) {
+            // Compile against the application class path only
+        }
+        return classPath;
+    }
+
+    /**
+     * Loads each generated class on its own, so the class is unloaded once its model is no longer used.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
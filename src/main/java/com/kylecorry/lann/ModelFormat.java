@@ -0,0 +1,234 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.security.InvalidParameterException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The versioned binary format used to save neural networks. Every value is little-endian, and the file is laid out as:
+ * <pre>
+ * int magic, int version, int layer count
+ * for each layer: int input size, int output size, int activation id
+ * for each layer: double[output size] bias
+ * for each layer: double[output size * input size] weights, in row-major order
+ * int CRC32 of every preceding byte
+ * </pre>
+ * Version 1 is the same format without the trailing checksum.
+ */
+final class ModelFormat {
+
+    /**
+     * The bytes "LANN" read as a little-endian int.
+     */
+    static final int MAGIC = 0x4E4E414C;
+    static final int VERSION = 2;
+
+    /**
+     * The size of the buffer used to stream the model to a channel.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int ACTIVATION_CUSTOM = 0;
+    private static final Class<?>[] ACTIVATIONS = {null, Linear.class, Sigmoid.class, Tanh.class, ReLU.class,
+            LeakyReLU.class, Softplus.class, Softmax.class, Binary.class, ApproximateSigmoid.class,
+            ApproximateTanh.class};
+
+    private ModelFormat() {
+    }
+
+    /**
+     * Write the layers of a neural network to a channel. The model is streamed through a fixed size buffer, so it is
+     * never copied in memory as a whole.
+     *
+     * @param layers  The layers of the neural network.
+     * @param channel The channel to write to.
+     * @throws IOException If the channel could not be written to.
+     */
+    static void write(List<NN.Layer> layers, WritableByteChannel channel) throws IOException {
+        Writer writer = new Writer(channel);
+        writer.putInt(MAGIC);
+        writer.putInt(VERSION);
+        writer.putInt(layers.size());
+        for (NN.Layer layer : layers) {
+            writer.putInt(layer.getLayerSize().getInputSize());
+            writer.putInt(layer.getLayerSize().getOutputSize());
+            writer.putInt(getActivationId(layer.getFunction()));
+        }
+        for (NN.Layer layer : layers)
+            writer.put(layer.getBias());
+        for (NN.Layer layer : layers)
+            writer.put(layer.getWeights());
+        writer.finish();
+    }
+
+    /**
+     * Determine if a buffer starts with the binary format. The position of the buffer is not changed.
+     *
+     * @param buffer The buffer to check.
+     * @return True if the buffer holds the binary format, false if it holds the legacy text format.
+     */
+    static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= 4
+                && buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+    }
+
+    /**
+     * Read the binary format into the layers of a neural network with the same topology.
+     *
+     * @param layers The layers of the neural network, which are overwritten.
+     * @param buffer The buffer holding the binary format, such as a memory mapped file.
+     */
+    static void read(List<NN.Layer> layers, ByteBuffer buffer) {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC) {
+            throw new InvalidParameterException("The data is not a saved neural network");
+        }
+        int version = buffer.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new InvalidParameterException("Unsupported neural network format version " + version);
+        }
+        if (buffer.getInt() != layers.size()) {
+            throw new InvalidParameterException("The number of layers did not match the neural network");
+        }
+        Activation[] functions = new Activation[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            NN.LayerSize size = layers.get(l).getLayerSize();
+            if (buffer.getInt() != size.getInputSize() || buffer.getInt() != size.getOutputSize()) {
+                throw new InvalidParameterException("The size of layer " + l + " did not match the neural network");
+            }
+            functions[l] = createActivation(buffer.getInt(), layers.get(l).getFunction());
+        }
+        int valueCount = 0;
+        for (NN.Layer layer : layers)
+            valueCount += layer.getBias().size() + layer.getWeights().size();
+        int checksumSize = version == 1 ? 0 : 4;
+        if (buffer.remaining() != valueCount * 8 + checksumSize) {
+            throw new InvalidParameterException("The saved neural network is truncated or has trailing data");
+        }
+        if (version != 1)
+            verifyChecksum(buffer);
+        for (NN.Layer layer : layers)
+            get(buffer, layer.getBias());
+        for (NN.Layer layer : layers)
+            get(buffer, layer.getWeights());
+        for (int l = 0; l < layers.size(); l++)
+            layers.get(l).setFunction(functions[l]);
+    }
+
+    private static void get(ByteBuffer buffer, Tensor tensor) {
+        buffer.asDoubleBuffer().get(tensor.data, tensor.offset, tensor.size());
+        buffer.position(buffer.position() + tensor.size() * 8);
+    }
+
+    /**
+     * Check the trailing CRC32 against every byte of the buffer before it, so corrupt data fails before any layer is
+     * overwritten.
+     *
+     * @param buffer The buffer holding the whole model.
+     */
+    private static void verifyChecksum(ByteBuffer buffer) {
+        int end = buffer.limit() - 4;
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        data.limit(end);
+        CRC32 checksum = new CRC32();
+        checksum.update(data);
+        if ((int) checksum.getValue() != buffer.getInt(end)) {
+            throw new InvalidParameterException("The saved neural network is corrupt, the checksum did not match");
+        }
+    }
+
+    /**
+     * Get the id which is saved for an activation function.
+     *
+     * @param function The activation function.
+     * @return The id of a built in activation function, or 0 for a custom one.
+     */
+    static int getActivationId(Activation function) {
+        for (int id = 1; id < ACTIVATIONS.length; id++)
+            if (ACTIVATIONS[id] == function.getClass())
+                return id;
+        return ACTIVATION_CUSTOM;
+    }
+
+    /**
+     * Create the activation function for a saved id.
+     *
+     * @param id       The saved id.
+     * @param existing The activation function the layer already has, which is kept for custom activation functions.
+     * @return The activation function.
+     */
+    static Activation createActivation(int id, Activation existing) {
+        if (id < 0 || id >= ACTIVATIONS.length) {
+            throw new InvalidParameterException("Unknown activation function id " + id);
+        }
+        if (id == ACTIVATION_CUSTOM || ACTIVATIONS[id] == existing.getClass())
+            return existing;
+        try {
+            return (Activation) ACTIVATIONS[id].newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes little-endian values to a channel through a fixed size buffer, keeping a checksum of every byte written.
+     */
+    private static class Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 checksum = new CRC32();
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4)
+                flush();
+            buffer.putInt(value);
+        }
+
+        void put(Tensor tensor) throws IOException {
+            int written = 0;
+            while (written < tensor.size()) {
+                if (buffer.remaining() < 8)
+                    flush();
+                int count = Math.min(tensor.size() - written, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(tensor.data, tensor.offset + written, count);
+                buffer.position(buffer.position() + count * 8);
+                written += count;
+            }
+        }
+
+        /**
+         * Write the checksum and any buffered values to the channel.
+         *
+         * @throws IOException If the channel could not be written to.
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) checksum.getValue());
+            buffer.flip();
+            writeFully();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.array(), 0, buffer.limit());
+            writeFully();
+        }
+
+        private void writeFully() throws IOException {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
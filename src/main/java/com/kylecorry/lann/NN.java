@@ -1,18 +1,45 @@
 package com.kylecorry.lann;
 
 import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.lann.activation.ApproximateSigmoid;
+import com.kylecorry.lann.activation.ApproximateTanh;
+import com.kylecorry.lann.activation.Sigmoid;
 import com.kylecorry.lann.activation.Softmax;
+import com.kylecorry.lann.activation.Tanh;
+import com.kylecorry.lann.loss.CrossEntropy;
+import com.kylecorry.lann.loss.Loss;
+import com.kylecorry.lann.loss.SoftmaxCrossEntropy;
+import com.kylecorry.lann.loss.SquaredError;
+import com.kylecorry.lann.optimizer.GradientDescent;
+import com.kylecorry.lann.optimizer.Optimizer;
 import com.kylecorry.matrix.Matrix;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class NN extends AbstractMachineLearningAlgorithm implements PersistentMachineLearningAlgorithm {
 
     private ArrayList<Layer> layers;
+    private double[] genome = new double[0];
     private double lambda = 0;
     private double learningRate = 0.1;
+    private int batchSize = 1;
+    private double[] inputBuffer;
+    private ForkJoinPool trainingPool;
+    private double gradientNorm = Double.NaN;
+    private Loss loss = new SquaredError();
+    private Optimizer optimizer = new GradientDescent();
+    private Optimizer.State[] weightStates, biasStates;
 
     /**
      * A representation of a Feed-Forward neural network.
@@ -22,15 +49,91 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
     }
 
     public Matrix predict(double... values) {
-        return predict(new Matrix(new double[][]{values}));
+        double[] output = feedForward(values);
+        Matrix prediction = new Matrix(output.length, 1);
+        for (int i = 0; i < output.length; i++) {
+            prediction.set(i, 0, output[i]);
+        }
+        return prediction;
     }
 
     public Matrix predict(Matrix input) {
-        input = input.transpose();
-        if (input.getNumRows() != layers.get(0).getLayerSize().getInputSize()) {
+        if (input.getNumRows() == 1) {
+            if (input.getNumCols() != inputBuffer.length) {
+                throw new InvalidParameterException("Input size did not match the input size of the first layer");
+            }
+            for (int i = 0; i < inputBuffer.length; i++) {
+                inputBuffer[i] = input.get(0, i);
+            }
+            return predict(inputBuffer);
+        }
+        return feedForward(toColumns(input)).toMatrix();
+    }
+
+    public Matrix predictBatch(Matrix rows) {
+        Tensor output = feedForward(toColumns(rows));
+        Matrix predictions = new Matrix(output.cols, output.rows);
+        for (int row = 0; row < output.rows; row++) {
+            for (int col = 0; col < output.cols; col++) {
+                predictions.set(col, row, output.get(row, col));
+            }
+        }
+        return predictions;
+    }
+
+    public Matrix[] predict(Matrix[] input) {
+        if (input.length == 0) {
+            return new Matrix[0];
+        }
+        Tensor output = feedForward(toColumns(input, 0, input.length, layers.get(0).getLayerSize().getInputSize()));
+        Matrix[] predictions = new Matrix[input.length];
+        for (int i = 0; i < input.length; i++) {
+            predictions[i] = new Matrix(output.rows, 1);
+            for (int row = 0; row < output.rows; row++) {
+                predictions[i].set(row, 0, output.get(row, i));
+            }
+        }
+        return predictions;
+    }
+
+    /**
+     * Make a prediction without allocating, using the preallocated buffers of each layer. This is not thread safe.
+     *
+     * @param input  The input of the neural network.
+     * @param output The array to copy the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        if (output.length != layers.get(layers.size() - 1).getLayerSize().getOutputSize()) {
+            throw new InvalidParameterException("Output size did not match the output size of the last layer");
+        }
+        System.arraycopy(feedForward(input), 0, output, 0, output.length);
+    }
+
+    /**
+     * Run a single sample through every layer of the network using the preallocated buffers of each layer.
+     *
+     * @param input The input to the network.
+     * @return The output buffer of the last layer, which is overwritten by the next call.
+     */
+    private double[] feedForward(double[] input) {
+        if (input.length != layers.get(0).getLayerSize().getInputSize()) {
             throw new InvalidParameterException("Input size did not match the input size of the first layer");
         }
-        Matrix modInput = (Matrix) input.clone();
+        double[] modInput = input;
+        for (Layer l : layers) {
+            modInput = l.activate(modInput);
+        }
+        return modInput;
+    }
+
+    /**
+     * Run the input through every layer of the network.
+     *
+     * @param input The input to the network, with one sample per column.
+     * @return The output of the network, with one sample per column.
+     */
+    private Tensor feedForward(Tensor input) {
+        Tensor modInput = input;
         for (Layer l : layers) {
             modInput = l.activate(modInput);
         }
@@ -41,6 +144,219 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
         learningRate = lr;
     }
 
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Set the number of samples which are averaged into a single weight update during training.
+     *
+     * @param batchSize The number of samples per update, a batch size of 1 performs stochastic gradient descent.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the loss which is minimized during training.
+     *
+     * @param loss The loss, a SoftmaxCrossEntropy loss requires a Softmax output layer.
+     */
+    public void setLoss(Loss loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * Set the optimizer which updates the weights and biases from their gradients. Any state of the previous optimizer,
+     * such as its momentum, is discarded.
+     *
+     * @param optimizer The optimizer.
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        weightStates = null;
+        biasStates = null;
+    }
+
+    /**
+     * Set the pool used to compute the gradients of each batch in parallel. Each batch is split into one shard per
+     * thread of the pool, and the gradients of the shards are summed into a single update.
+     *
+     * @param pool The pool to train on, or null to train on the calling thread.
+     */
+    public void setTrainingPool(ForkJoinPool pool) {
+        trainingPool = pool;
+    }
+
+    /**
+     * Fit the neural network to an input and output data set using mini-batches.
+     *
+     * @param input         The input of the algorithm.
+     * @param output        The desired output of the algorithm in the same order as the input.
+     * @param maxIterations The max number of training iterations to perform.
+     * @param tolerance     The error in which to stop the training iterations.
+     * @param batchSize     The number of samples per weight update.
+     * @return The error of the last training iteration.
+     */
+    public double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance, int batchSize) {
+        setBatchSize(batchSize);
+        return fit(input, output, maxIterations, tolerance);
+    }
+
+    /**
+     * Create an immutable copy of the trained network which can be used to predict from many threads at once. Later
+     * training of this network does not affect the copy. Layers whose weights are mostly zero, such as after pruning,
+     * are stored sparse.
+     *
+     * @return The inference model.
+     */
+    public InferenceModel toInferenceModel() {
+        return toInferenceModel(InferenceModel.DEFAULT_SPARSE_DENSITY);
+    }
+
+    /**
+     * Create an immutable copy of the trained network which can be used to predict from many threads at once. Later
+     * training of this network does not affect the copy.
+     *
+     * @param maxSparseDensity The fraction of non-zero weights below which a layer is stored sparse, 0 to keep every
+     *                         layer dense.
+     * @return The inference model.
+     */
+    public InferenceModel toInferenceModel(double maxSparseDensity) {
+        Tensor[] weights = new Tensor[layers.size()];
+        Tensor[] biases = new Tensor[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            weights[l] = layers.get(l).weights.copy();
+            biases[l] = layers.get(l).bias.copy();
+        }
+        return new InferenceModel(weights, biases, getActivations(), maxSparseDensity);
+    }
+
+    /**
+     * Set every weight whose magnitude is below a threshold to zero. The biases are not pruned. Training afterwards
+     * updates the pruned weights again, so prune once training is done, or fine tune and prune again.
+     *
+     * @param threshold The magnitude below which a weight is pruned.
+     * @return The number of weights set to zero.
+     */
+    public int prune(double threshold) {
+        int pruned = 0;
+        for (Layer layer : layers) {
+            Tensor w = layer.weights;
+            for (int i = w.offset; i < w.offset + w.size(); i++) {
+                if (w.data[i] != 0 && Math.abs(w.data[i]) < threshold) {
+                    w.data[i] = 0;
+                    pruned++;
+                }
+            }
+        }
+        markModified();
+        return pruned;
+    }
+
+    /**
+     * Set the weights with the smallest magnitudes of each layer to zero, so that a fraction of the weights of every
+     * layer is zero. The biases are not pruned. Training afterwards updates the pruned weights again, so prune once
+     * training is done, or fine tune and prune again.
+     *
+     * @param sparsity The fraction of the weights of each layer to prune, from [0, 1].
+     * @return The number of weights set to zero.
+     */
+    public int pruneToSparsity(double sparsity) {
+        if (sparsity < 0 || sparsity > 1) {
+            throw new InvalidParameterException("Sparsity must be from 0 to 1");
+        }
+        int pruned = 0;
+        for (Layer layer : layers) {
+            Tensor w = layer.weights;
+            int count = (int) Math.round(sparsity * w.size());
+            if (count == 0)
+                continue;
+            double[] magnitudes = new double[w.size()];
+            for (int i = 0; i < magnitudes.length; i++)
+                magnitudes[i] = Math.abs(w.data[w.offset + i]);
+            Arrays.sort(magnitudes);
+            double threshold = magnitudes[count - 1];
+            // Every weight below the threshold is pruned, and weights equal to it only until the count is reached
+            int ties = count;
+            for (double magnitude : magnitudes) {
+                if (magnitude < threshold)
+                    ties--;
+            }
+            for (int i = w.offset; i < w.offset + w.size(); i++) {
+                double magnitude = Math.abs(w.data[i]);
+                if (magnitude < threshold || (magnitude == threshold && ties-- > 0)) {
+                    if (w.data[i] != 0)
+                        pruned++;
+                    w.data[i] = 0;
+                }
+            }
+        }
+        markModified();
+        return pruned;
+    }
+
+    /**
+     * Compile an immutable copy of the trained network into a class of its own, with the weights baked in. This makes
+     * predictions with small networks much faster, but takes a few hundred milliseconds. Later training of this
+     * network does not affect the copy.
+     *
+     * @return The compiled model, which predicts with an {@link InferenceModel} if the network could not be compiled.
+     */
+    public CompiledModel compile() {
+        Tensor[] weights = new Tensor[layers.size()];
+        Tensor[] biases = new Tensor[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            weights[l] = layers.get(l).weights.copy();
+            biases[l] = layers.get(l).bias.copy();
+        }
+        return new CompiledModel(weights, biases, getActivations());
+    }
+
+    /**
+     * Create an immutable copy of the trained network which stores its weights as floats, using half of the memory.
+     * It can be used to predict from many threads at once, and later training of this network does not affect it.
+     *
+     * @return The float inference model.
+     */
+    public FloatInferenceModel toFloatInferenceModel() {
+        Tensor[] weights = new Tensor[layers.size()];
+        Tensor[] biases = new Tensor[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            weights[l] = layers.get(l).weights;
+            biases[l] = layers.get(l).bias;
+        }
+        return new FloatInferenceModel(weights, biases, getActivations());
+    }
+
+    /**
+     * Create an immutable copy of the trained network which stores its weights as 8-bit integers, using an eighth of
+     * the memory. Check the accuracy lost with {@link QuantizedInferenceModel#accuracyLoss} before deploying it.
+     *
+     * @param granularity How many weights share a scale factor.
+     * @return The quantized inference model.
+     */
+    public QuantizedInferenceModel toQuantizedInferenceModel(QuantizedInferenceModel.Granularity granularity) {
+        Tensor[] weights = new Tensor[layers.size()];
+        Tensor[] biases = new Tensor[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            weights[l] = layers.get(l).weights;
+            biases[l] = layers.get(l).bias;
+        }
+        return new QuantizedInferenceModel(weights, biases, getActivations(), granularity);
+    }
+
+    private Activation[] getActivations() {
+        Activation[] functions = new Activation[layers.size()];
+        for (int l = 0; l < layers.size(); l++) {
+            functions[l] = layers.get(l).function;
+        }
+        return functions;
+    }
+
     /**
      * Calculate the cross entropy error of the neural network.
      *
@@ -50,13 +366,12 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
      */
     public double crossEntropyError(Matrix x, Matrix y) {
         Matrix y_ = predict(x);
-        double j = y_.multiply(y.map(new Matrix.Function() {
-            @Override
-            public double function(double x) {
-                return Math.log(x);
-            }
-        })).sum();
-        return -j;
+        Loss crossEntropy = new CrossEntropy();
+        double j = 0;
+        for (int i = 0; i < y_.getNumRows(); i++) {
+            j += crossEntropy.loss(y_.get(i, 0), y.get(i / y.getNumCols(), i % y.getNumCols()));
+        }
+        return j;
     }
 
     /**
@@ -68,43 +383,300 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
      */
     public double squaredError(Matrix x, Matrix y) {
         Matrix y_ = predict(x);
-        double sumSquareWeights = 0;
-        for (Layer layer : layers)
-            sumSquareWeights += layer.weightMatrix.power(2).sum();
         double j = 0.5 * y_.subtract(y).power(2).sum() / layers.get(0).getLayerSize().getInputSize()
-                + lambda / 2 * sumSquareWeights;
+                + lambda / 2 * sumSquareWeights();
         return j;
     }
 
+    private double sumSquareWeights() {
+        double sumSquareWeights = 0;
+        for (Layer layer : layers) {
+            Tensor weights = layer.weights;
+            for (int i = weights.offset; i < weights.offset + weights.size(); i++)
+                sumSquareWeights += weights.data[i] * weights.data[i];
+        }
+        return sumSquareWeights;
+    }
+
     public double train(Matrix[] input, Matrix[] output) {
+        if (loss instanceof SoftmaxCrossEntropy && !(layers.get(layers.size() - 1).function instanceof Softmax)) {
+            throw new InvalidParameterException("Softmax cross entropy loss requires a Softmax output layer");
+        }
         double totalError = 0;
         if (input.length == output.length) {
-            for (int i = 0; i < input.length; i++) {
-                Matrix inputRow = input[i];
-                Matrix outputRow = output[i].transpose();
-                Matrix netOutput = this.predict(inputRow);
-                // Output layer
-                Matrix previousDelta = outputRow.subtract(netOutput).multiply(-1).multiply(layers.get(layers.size() - 1)
-                        .applyFunctionDerivative(layers.get(layers.size() - 1).inputMatrix));
-                Matrix change = previousDelta.dot(layers.get(layers.size() - 2).outputMatrix.transpose())
-                        .add(layers.get(layers.size() - 1).weightMatrix.multiply(lambda));
-                layers.get(layers.size() - 1).weightMatrix = layers.get(layers.size() - 1).weightMatrix
-                        .subtract(change.multiply(learningRate));
-                // Hidden layers
-                for (int l = layers.size() - 2; l > 0; l--) {
-                    previousDelta = layers.get(l + 1).weightMatrix.transpose().dot(previousDelta)
-                            .multiply(layers.get(l).applyFunctionDerivative(layers.get(l).inputMatrix));
-                    change = previousDelta.dot(layers.get(l - 1).outputMatrix.transpose())
-                            .add(layers.get(l).weightMatrix.multiply(lambda));
-                    layers.get(l).weightMatrix = layers.get(l).weightMatrix.subtract(change.multiply(learningRate));
+            try {
+                for (int start = 0; start < input.length; start += batchSize) {
+                    int end = Math.min(start + batchSize, input.length);
+                    Gradients gradients;
+                    if (trainingPool != null && end - start > 1) {
+                        // Each task copies its own shard of the batch
+                        int parallelism = trainingPool.getParallelism();
+                        int shardSize = (end - start + parallelism - 1) / parallelism;
+                        gradients = trainingPool.invoke(new GradientTask(input, output, start, end, shardSize));
+                    } else {
+                        Tensor x = toColumns(input, start, end, layers.get(0).getLayerSize().getInputSize());
+                        Tensor y = toColumns(output, start, end,
+                                layers.get(layers.size() - 1).getLayerSize().getOutputSize());
+                        gradients = backpropagate(x, y);
+                    }
+                    double sumSquareWeights = applyGradients(gradients, end - start);
+                    totalError += gradients.loss + (end - start) * lambda / 2 * sumSquareWeights;
                 }
-                double error = squaredError(inputRow, outputRow);
-                totalError += error;
+            } finally {
+                // Batches before a failure were already applied
+                markModified();
             }
         }
         return totalError;
     }
 
+    /**
+     * Calculate the loss and its gradients with respect to the weights and biases of every layer, from a single forward
+     * pass.
+     *
+     * @param x The input to the neural network, with one sample per column.
+     * @param y The expected output, with one sample per column.
+     * @return The loss and gradients summed over every sample of the batch.
+     */
+    private Gradients backpropagate(Tensor x, Tensor y) {
+        int n = layers.size();
+        Tensor[] weighted = new Tensor[n];
+        Tensor[] activated = new Tensor[n + 1];
+        activated[0] = x;
+        for (int l = 0; l < n; l++) {
+            weighted[l] = layers.get(l).weigh(activated[l]);
+            activated[l + 1] = layers.get(l).applyFunction(weighted[l]);
+        }
+        Gradients gradients = new Gradients(n);
+        // Output layer
+        Tensor output = activated[n];
+        Tensor delta = new Tensor(output.rows, output.cols);
+        for (int i = 0; i < output.size(); i++) {
+            double predicted = output.data[output.offset + i], expected = y.data[y.offset + i];
+            gradients.loss += loss.loss(predicted, expected);
+            delta.data[i] = loss.derivative(predicted, expected);
+        }
+        // The softmax cross entropy derivative is already with respect to the weighted input
+        if (!(loss instanceof SoftmaxCrossEntropy))
+            layers.get(n - 1).backward(weighted[n - 1], activated[n], delta);
+        // Hidden layers
+        for (int l = n - 1; l >= 0; l--) {
+            gradients.weights[l] = new Tensor(delta.rows, activated[l].rows);
+            Tensor.gemmTransposeB(delta, activated[l], gradients.weights[l]);
+            gradients.biases[l] = sumColumns(delta);
+            if (l > 0) {
+                Tensor previousDelta = new Tensor(activated[l].rows, delta.cols);
+                Tensor.gemmTransposeA(layers.get(l).weights, delta, previousDelta);
+                layers.get(l - 1).backward(weighted[l - 1], activated[l], previousDelta);
+                delta = previousDelta;
+            }
+        }
+        return gradients;
+    }
+
+    /**
+     * Computes the gradients of a range of samples by splitting it into shards which are backpropagated in parallel.
+     */
+    private class GradientTask extends RecursiveTask<Gradients> {
+        private static final long serialVersionUID = 1L;
+
+        private Matrix[] input, output;
+        private int from, to, shardSize;
+
+        /**
+         * Create a task which computes the gradients of a range of samples.
+         *
+         * @param input     The input samples.
+         * @param output    The expected output samples.
+         * @param from      The index of the first sample, inclusive.
+         * @param to        The index of the last sample, exclusive.
+         * @param shardSize The largest number of samples to backpropagate without splitting.
+         */
+        GradientTask(Matrix[] input, Matrix[] output, int from, int to, int shardSize) {
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+            this.shardSize = shardSize;
+        }
+
+        @Override
+        protected Gradients compute() {
+            if (to - from <= shardSize) {
+                return backpropagate(toColumns(input, from, to, layers.get(0).getLayerSize().getInputSize()),
+                        toColumns(output, from, to, layers.get(layers.size() - 1).getLayerSize().getOutputSize()));
+            }
+            int middle = (from + to) >>> 1;
+            GradientTask left = new GradientTask(input, output, from, middle, shardSize);
+            left.fork();
+            Gradients gradients = new GradientTask(input, output, middle, to, shardSize).compute();
+            gradients.add(left.join());
+            return gradients;
+        }
+    }
+
+    /**
+     * Update the weights and biases of every layer using the averaged gradients of a batch.
+     *
+     * @param gradients The gradients summed over the batch.
+     * @param samples   The number of samples in the batch.
+     * @return The sum of the squared weights before the update, used to regularize the loss.
+     */
+    private double applyGradients(Gradients gradients, int samples) {
+        if (weightStates == null) {
+            weightStates = new Optimizer.State[layers.size()];
+            biasStates = new Optimizer.State[layers.size()];
+            for (int l = 0; l < layers.size(); l++) {
+                weightStates[l] = optimizer.createState(layers.get(l).weights.size());
+                biasStates[l] = optimizer.createState(layers.get(l).bias.size());
+            }
+        }
+        double sumSquareGradients = 0;
+        double sumSquareWeights = 0;
+        for (int l = 0; l < layers.size(); l++) {
+            // Average and regularize the gradients in place, then let the optimizer apply them
+            Tensor weights = layers.get(l).weights, weightGradient = gradients.weights[l];
+            for (int i = 0; i < weights.size(); i++) {
+                double weight = weights.data[weights.offset + i];
+                double change = weightGradient.data[weightGradient.offset + i] / samples + lambda * weight;
+                sumSquareWeights += weight * weight;
+                sumSquareGradients += change * change;
+                weightGradient.data[weightGradient.offset + i] = change;
+            }
+            weightStates[l].update(weights.data, weights.offset, weightGradient.data, weightGradient.offset,
+                    learningRate);
+            Tensor bias = layers.get(l).bias, biasGradient = gradients.biases[l];
+            for (int i = 0; i < bias.size(); i++) {
+                double change = biasGradient.data[biasGradient.offset + i] / samples;
+                sumSquareGradients += change * change;
+                biasGradient.data[biasGradient.offset + i] = change;
+            }
+            biasStates[l].update(bias.data, bias.offset, biasGradient.data, biasGradient.offset, learningRate);
+        }
+        gradientNorm = Math.sqrt(sumSquareGradients);
+        return sumSquareWeights;
+    }
+
+    @Override
+    protected double getGradientNorm() {
+        return gradientNorm;
+    }
+
+    @Override
+    protected double[] getParameters() {
+        return genome.clone();
+    }
+
+    @Override
+    protected void setParameters(double[] parameters) {
+        if (parameters.length != genome.length) {
+            throw new InvalidParameterException("The number of parameters did not match the neural network");
+        }
+        System.arraycopy(parameters, 0, genome, 0, genome.length);
+        markModified();
+    }
+
+    /**
+     * Get the array which holds every parameter of the network: the weights of each layer in row-major order followed
+     * by its bias, layer by layer. The layers are views into this array, so changes to it change the network.
+     *
+     * @return The parameters of the network, not a copy.
+     */
+    double[] getGenome() {
+        return genome;
+    }
+
+    /**
+     * Calculate the loss of the neural network on a data set, without the regularization term, in one forward pass
+     * per batch.
+     *
+     * @param data The data set to evaluate.
+     * @return The loss summed over every sample.
+     */
+    @Override
+    public double evaluate(Dataset data) {
+        double error = 0;
+        Iterator<Dataset.Batch> batches = data.iterator();
+        try {
+            while (batches.hasNext()) {
+                Dataset.Batch batch = batches.next();
+                int samples = batch.size();
+                Tensor predicted = feedForward(toColumns(batch.getInput(), 0, samples,
+                        layers.get(0).getLayerSize().getInputSize()));
+                Tensor expected = toColumns(batch.getOutput(), 0, samples,
+                        layers.get(layers.size() - 1).getLayerSize().getOutputSize());
+                for (int i = 0; i < predicted.size(); i++)
+                    error += loss.loss(predicted.data[predicted.offset + i], expected.data[expected.offset + i]);
+            }
+        } finally {
+            Dataset.close(batches);
+        }
+        return error;
+    }
+
+    /**
+     * Stack a range of row vectors into the columns of a single tensor.
+     *
+     * @param rows The row vectors.
+     * @param from The index of the first row, inclusive.
+     * @param to   The index of the last row, exclusive.
+     * @param size The expected length of each row.
+     * @return A tensor with one row vector per column.
+     */
+    private static Tensor toColumns(Matrix[] rows, int from, int to, int size) {
+        Tensor columns = new Tensor(size, to - from);
+        for (int i = from; i < to; i++) {
+            if (rows[i].getNumRows() * rows[i].getNumCols() != size) {
+                throw new InvalidParameterException("Sample size did not match the size of the network");
+            }
+            int cols = rows[i].getNumCols();
+            for (int r = 0; r < size; r++) {
+                columns.set(r, i - from, rows[i].get(r / cols, r % cols));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Copy the rows of a matrix into the columns of a tensor which can be run through the network.
+     *
+     * @param rows The input to the network, with one sample per row.
+     * @return The input to the network, with one sample per column.
+     */
+    private Tensor toColumns(Matrix rows) {
+        if (rows.getNumCols() != layers.get(0).getLayerSize().getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        Tensor columns = new Tensor(rows.getNumCols(), rows.getNumRows());
+        for (int r = 0; r < rows.getNumRows(); r++) {
+            for (int c = 0; c < rows.getNumCols(); c++) {
+                columns.set(c, r, rows.get(r, c));
+            }
+        }
+        return columns;
+    }
+
+    private static Tensor sumColumns(Tensor m) {
+        Tensor sum = new Tensor(m.rows, 1);
+        for (int r = 0; r < m.rows; r++) {
+            double total = 0;
+            for (int c = 0; c < m.cols; c++) {
+                total += m.get(r, c);
+            }
+            sum.set(r, 0, total);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the layers of the neural network.
+     *
+     * @return The layers, from input to output.
+     */
+    List<Layer> getLayers() {
+        return layers;
+    }
+
     /**
      * Add a layer to the neural network.
      *
@@ -114,6 +686,17 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
         if (layers.size() == 0
                 || layers.get(layers.size() - 1).getLayerSize().getOutputSize() == l.getLayerSize().getInputSize()) {
             layers.add(l);
+            // Move every layer into one array, so the parameters can be read and mutated as a flat genome
+            double[] packed = new double[genome.length + l.weights.size() + l.bias.size()];
+            int offset = 0;
+            for (Layer layer : layers)
+                offset = layer.moveTo(packed, offset);
+            genome = packed;
+            weightStates = null;
+            biasStates = null;
+            if (layers.size() == 1) {
+                inputBuffer = new double[l.getLayerSize().getInputSize()];
+            }
         } else {
             System.err.println("Layer input did not match the output of the last layer.");
             System.exit(1);
@@ -121,37 +704,24 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
     }
 
     public void save(OutputStream os) {
-
+        try {
+            ModelFormat.write(layers, Channels.newChannel(os));
+            os.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void save(File file) {
-        PrintWriter printWriter;
-        try {
-            printWriter = new PrintWriter(file, "UTF-8");
-            for (Layer l : layers) {
-                printWriter.println(l.weightMatrix.toString().replace("\n", ""));
-            }
-            printWriter.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
+        try (OutputStream os = new FileOutputStream(file)) {
+            save(os);
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public void save(String filename) {
-        PrintWriter printWriter;
-        try {
-            printWriter = new PrintWriter(filename, "UTF-8");
-            for (Layer l : layers) {
-                printWriter.println(l.weightMatrix.toString().replace("\n", ""));
-            }
-            printWriter.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
+        save(new File(filename));
     }
 
     private void loadFromBufferedReader(BufferedReader br) {
@@ -172,7 +742,7 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
                 for (int r = 0; r < rows.length; r++) {
                     String[] cols = rows[r].replace("[", "").replace("]", "").split(", ");
                     for (int c = 0; c < cols.length; c++) {
-                        layers.get(i).weightMatrix.set(r, c, Double.parseDouble(cols[c]));
+                        layers.get(i).weights.set(r, c, Double.parseDouble(cols[c]));
                     }
                 }
             }
@@ -180,19 +750,53 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            markModified();
         }
     }
 
     public void load(InputStream is) {
         try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(is, "utf-8"));
-            loadFromBufferedReader(br);
-        } catch (UnsupportedEncodingException e) {
+            BufferedInputStream bis = new BufferedInputStream(is);
+            bis.mark(4);
+            byte[] magic = new byte[4];
+            int read = bis.read(magic);
+            bis.reset();
+            if (read == magic.length && ModelFormat.isBinary(ByteBuffer.wrap(magic))) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                for (int n = bis.read(chunk); n != -1; n = bis.read(chunk)) {
+                    bytes.write(chunk, 0, n);
+                }
+                bis.close();
+                try {
+                    ModelFormat.read(layers, ByteBuffer.wrap(bytes.toByteArray()));
+                } finally {
+                    markModified();
+                }
+            } else {
+                loadFromBufferedReader(new BufferedReader(new InputStreamReader(bis, "utf-8")));
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public void load(File file) {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (ModelFormat.isBinary(buffer)) {
+                try {
+                    ModelFormat.read(layers, buffer);
+                } finally {
+                    markModified();
+                }
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
         try {
             BufferedReader br = new BufferedReader(new FileReader(file));
             loadFromBufferedReader(br);
@@ -238,8 +842,37 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
         }
     }
 
+    static class Gradients {
+        private Tensor[] weights, biases;
+        private double loss;
+
+        /**
+         * The gradients of the weights and biases of every layer in a neural network.
+         *
+         * @param size The number of layers.
+         */
+        Gradients(int size) {
+            weights = new Tensor[size];
+            biases = new Tensor[size];
+        }
+
+        /**
+         * Adds the gradients of another batch to these gradients.
+         *
+         * @param other The gradients to add.
+         */
+        void add(Gradients other) {
+            loss += other.loss;
+            for (int l = 0; l < weights.length; l++) {
+                weights[l].add(other.weights[l]);
+                biases[l].add(other.biases[l]);
+            }
+        }
+    }
+
     static class Layer {
-        private Matrix weightMatrix, biasMatrix, outputMatrix, inputMatrix;
+        private Tensor weights, bias;
+        private double[] outputBuffer;
         private Activation function;
         LayerSize layerSize;
 
@@ -250,90 +883,141 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
          * @param fn   The activation function for the neurons in this layer.
          */
         public Layer(LayerSize size, Activation fn) {
-            weightMatrix = new Matrix(size.getOutputSize(), size.getInputSize());
-            biasMatrix = new Matrix(size.getOutputSize(), 1, 0.1);
-            outputMatrix = new Matrix(size.getOutputSize(), 1);
-            inputMatrix = new Matrix(size.getInputSize(), 1);
+            bias = new Tensor(size.getOutputSize(), 1);
+            bias.fill(0.1);
+            outputBuffer = new double[size.getOutputSize()];
             function = fn;
             layerSize = size;
-            weightMatrix = createRandomMatrix(size.getOutputSize(), size.getInputSize());
+            weights = createRandomTensor(size.getOutputSize(), size.getInputSize());
         }
 
-        private Matrix createRandomMatrix(int rows, int cols) {
-            Matrix random = new Matrix(rows, cols);
-            return random.map(new Matrix.Function() {
-
-                @Override
-                public double function(double x) {
-                    return Math.random();
-                }
-            });
+        /**
+         * Move the weights and bias of the layer into part of a larger array, which the layer then views.
+         *
+         * @param data   The array to move to.
+         * @param offset The index in the array to place the weights at, followed by the bias.
+         * @return The index after the bias.
+         */
+        private int moveTo(double[] data, int offset) {
+            Tensor movedWeights = new Tensor(data, offset, weights.rows, weights.cols);
+            System.arraycopy(weights.data, weights.offset, data, offset, weights.size());
+            offset += weights.size();
+            Tensor movedBias = new Tensor(data, offset, bias.rows, bias.cols);
+            System.arraycopy(bias.data, bias.offset, data, offset, bias.size());
+            weights = movedWeights;
+            bias = movedBias;
+            return offset + bias.size();
         }
 
-        private Matrix applyFunctionDerivative(Matrix input) {
-            Matrix activated = (Matrix) input.clone();
-            if (function instanceof Softmax)
-                activated = activated.map(new Matrix.Function() {
-
-                    @Override
-                    public double function(double x) {
-                        return Math.exp(x);
-                    }
-                });
-            else
-                activated = activated.map(new Matrix.Function() {
-
-                    @Override
-                    public double function(double x) {
-                        return function.derivative(x);
-                    }
-                });
+        private Tensor createRandomTensor(int rows, int cols) {
+            Tensor random = new Tensor(rows, cols);
+            for (int i = 0; i < random.size(); i++)
+                random.data[i] = Math.random();
+            return random;
+        }
 
+        /**
+         * Turns the gradient with respect to the output of the layer into the gradient with respect to its weighted
+         * input, in place.
+         *
+         * @param input    The weighted input of the layer, as returned by weigh, which is overwritten.
+         * @param output   The output of the layer for the input, as returned by applyFunction.
+         * @param gradient The gradient with respect to the output, which is overwritten.
+         */
+        private void backward(Tensor input, Tensor output, Tensor gradient) {
             if (function instanceof Softmax) {
-                double sum = activated.sum();
-                if (sum != 0)
-                    activated = activated.multiply(1 / sum);
-                activated = activated.subtract(input);
-                activated = activated.map(new Matrix.Function() {
-
-                    @Override
-                    public double function(double x) {
-                        return function.activate(x);
-                    }
-                });
+                ((Softmax) function).backwardColumns(output.data, gradient.data, gradient.rows, gradient.cols);
+            } else {
+                function.derivativeFromOutput(input.data, output.data, input.data, input.size());
+                gradient.multiply(input);
             }
-            return activated;
         }
 
         /**
          * Processes the input to the layer.
          *
+         * @param input The input to the layer, with one sample per column.
+         * @return The output of the layer, with one sample per column.
+         */
+        private Tensor activate(Tensor input) {
+            return applyFunction(weigh(input));
+        }
+
+        /**
+         * Processes a single sample into the output buffer of the layer, without allocating.
+         *
          * @param input The input to the layer.
-         * @return The output of the layer.
+         * @return The output buffer of the layer, which is overwritten by the next call.
          */
-        private Matrix activate(Matrix input) {
-            inputMatrix = weightMatrix.dot(input).add(biasMatrix);
-            Matrix y = applyFunction(inputMatrix);
-            outputMatrix = y;
-            return y;
+        private double[] activate(double[] input) {
+            return activate(weights, bias, function, input, outputBuffer);
+        }
+
+        /**
+         * Processes a single sample through a layer with the given weights, without allocating.
+         *
+         * @param weights  The weights of the layer, one row per output.
+         * @param bias     The bias of the layer, as a single column.
+         * @param function The activation function of the layer.
+         * @param input    The input to the layer.
+         * @param output   The array to write the output of the layer into.
+         * @return The output array.
+         */
+        static double[] activate(Tensor weights, Tensor bias, Activation function, double[] input, double[] output) {
+            Tensor.gemv(weights, input, output);
+            return activate(bias, function, output);
+        }
+
+        /**
+         * Processes a single sample through a layer with sparse weights, without allocating.
+         *
+         * @param weights  The weights of the layer, one row per output.
+         * @param bias     The bias of the layer, as a single column.
+         * @param function The activation function of the layer.
+         * @param input    The input to the layer.
+         * @param output   The array to write the output of the layer into.
+         * @return The output array.
+         */
+        static double[] activate(SparseTensor weights, Tensor bias, Activation function, double[] input,
+                                 double[] output) {
+            weights.gemv(input, output);
+            return activate(bias, function, output);
+        }
+
+        private static double[] activate(Tensor bias, Activation function, double[] output) {
+            for (int row = 0; row < output.length; row++)
+                output[row] += bias.data[bias.offset + row];
+            Kernels.INSTANCE.activate(function, output, output, output.length);
+            return output;
+        }
+
+        /**
+         * Applies the weights and biases of the layer to the input.
+         *
+         * @param input The input to the layer, with one sample per column.
+         * @return The weighted input of the layer, with one sample per column.
+         */
+        private Tensor weigh(Tensor input) {
+            Tensor weighted = new Tensor(weights.rows, input.cols);
+            Tensor.gemm(weights, input, weighted);
+            for (int row = 0; row < weighted.rows; row++)
+                for (int col = 0; col < weighted.cols; col++)
+                    weighted.set(row, col, weighted.get(row, col) + bias.get(row, 0));
+            return weighted;
         }
 
         /**
          * Applies the activation function to the processed input.
          *
-         * @param input The input to the activation function.
+         * @param input The input to the activation function, as returned by weigh.
          * @return The output of the activation function.
          */
-        private Matrix applyFunction(Matrix input) {
-            Matrix activated = (Matrix) input.clone();
-            for (int row = 0; row < input.getNumRows(); row++)
-                for (int col = 0; col < input.getNumCols(); col++)
-                    activated.set(row, col, function.activate(input.get(row, col)));
-            if (function instanceof Softmax) {
-                double sum = activated.sum();
-                if (sum != 0)
-                    activated = activated.multiply(1 / sum);
-            }
+        private Tensor applyFunction(Tensor input) {
+            Tensor activated = new Tensor(input.rows, input.cols);
+            if (function instanceof Softmax)
+                ((Softmax) function).activateColumns(input.data, activated.data, input.rows, input.cols);
+            else
+                Kernels.INSTANCE.activate(function, input.data, activated.data, input.size());
             return activated;
         }
 
@@ -346,6 +1030,22 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
             return layerSize;
         }
 
+        Tensor getWeights() {
+            return weights;
+        }
+
+        Tensor getBias() {
+            return bias;
+        }
+
+        Activation getFunction() {
+            return function;
+        }
+
+        void setFunction(Activation fn) {
+            function = fn;
+        }
+
     }
 
     /**
@@ -371,11 +1071,69 @@ public class NN extends AbstractMachineLearningAlgorithm implements PersistentMa
             return this;
         }
 
+        /**
+         * Adds a layer to the neural network, optionally with a faster approximation of its activation function.
+         * Sigmoid and Tanh are replaced by ApproximateSigmoid and ApproximateTanh, which are within 6e-6 of the exact
+         * functions, other activation functions are kept.
+         *
+         * @param input       The input size of the layer.
+         * @param output      The output size of the layer.
+         * @param function    The activation function of the layer.
+         * @param approximate True to approximate the activation function.
+         */
+        public NN.Builder addLayer(int input, int output, Activation function, boolean approximate) {
+            if (approximate && function.getClass() == Sigmoid.class)
+                function = new ApproximateSigmoid();
+            else if (approximate && function.getClass() == Tanh.class)
+                function = new ApproximateTanh();
+            return addLayer(input, output, function);
+        }
+
         public NN.Builder setRegularization(double lambda) {
             net.lambda = lambda;
             return this;
         }
 
+        /**
+         * Sets the loss which is minimized during training, the default is the squared error.
+         *
+         * @param loss The loss.
+         */
+        public NN.Builder setLoss(Loss loss) {
+            net.setLoss(loss);
+            return this;
+        }
+
+        /**
+         * Sets the optimizer which updates the weights during training, the default is plain gradient descent.
+         *
+         * @param optimizer The optimizer, such as Momentum, RMSProp or Adam.
+         */
+        public NN.Builder setOptimizer(Optimizer optimizer) {
+            net.setOptimizer(optimizer);
+            return this;
+        }
+
+        /**
+         * Sets the number of samples which are averaged into a single weight update during training.
+         *
+         * @param batchSize The number of samples per update.
+         */
+        public NN.Builder setBatchSize(int batchSize) {
+            net.setBatchSize(batchSize);
+            return this;
+        }
+
+        /**
+         * Sets the pool used to compute the gradients of each batch in parallel.
+         *
+         * @param pool The pool to train on, or null to train on the calling thread.
+         */
+        public NN.Builder setTrainingPool(ForkJoinPool pool) {
+            net.setTrainingPool(pool);
+            return this;
+        }
+
         /**
          * Builds a neural network instance.
          */
@@ -7,4 +7,12 @@ public class NeuralNetworkPredictionAnalyzer {
 		double max = input.max();
 		return input.find(max)[0];
 	}
+
+	public static int argMax(double[] input) {
+		int maxIndex = 0;
+		for (int i = 1; i < input.length; i++)
+			if (input[i] > input[maxIndex])
+				maxIndex = i;
+		return maxIndex;
+	}
 }
@@ -0,0 +1,232 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+
+/**
+ * An immutable, trained feed-forward neural network which stores its weights as 8-bit integers, using an eighth of the
+ * memory of the double weights. Each weight is stored as round(w / scale), with one scale per layer or per row. Before
+ * each layer the input is quantized the same way, so the dot products accumulate integers, and only the sum of each
+ * row is scaled back to a double before the bias and activation function are applied. Each thread predicts using its
+ * own buffers, so no locking is needed.
+ */
+public class QuantizedInferenceModel extends AbstractMachineLearningAlgorithm {
+
+    /**
+     * The largest magnitude of a quantized value, so that the range is symmetric around zero.
+     */
+    private static final int MAX_QUANTIZED = 127;
+
+    /**
+     * How many weights share a scale factor.
+     */
+    public enum Granularity {
+        /**
+         * One scale factor for every weight of a layer.
+         */
+        PER_LAYER,
+        /**
+         * One scale factor for each row of weights, which feeds a single output. This keeps small rows precise when
+         * other rows of the layer are large.
+         */
+        PER_ROW
+    }
+
+    private final byte[][] weights;
+    private final float[][] weightScales;
+    private final double[][] biases;
+    private final int[] inputSizes;
+    private final Activation[] functions;
+    private final ThreadLocal<Buffers> buffers;
+
+    /**
+     * Create a quantized inference model by rounding the weights of each layer to 8-bit integers.
+     *
+     * @param weights     The weights of each layer, one row per output.
+     * @param biases      The bias of each layer, as a single column.
+     * @param functions   The activation function of each layer.
+     * @param granularity How many weights share a scale factor.
+     */
+    QuantizedInferenceModel(Tensor[] weights, Tensor[] biases, Activation[] functions, Granularity granularity) {
+        this.weights = new byte[weights.length][];
+        this.weightScales = new float[weights.length][];
+        this.biases = new double[biases.length][];
+        this.inputSizes = new int[weights.length];
+        this.functions = functions;
+        for (int l = 0; l < weights.length; l++) {
+            Tensor w = weights[l];
+            this.weights[l] = new byte[w.size()];
+            this.weightScales[l] = new float[w.rows];
+            double layerScale = scale(w.data, w.offset, w.size());
+            for (int row = 0; row < w.rows; row++) {
+                double scale = granularity == Granularity.PER_ROW ? scale(w.data, w.offset + row * w.cols, w.cols)
+                        : layerScale;
+                weightScales[l][row] = (float) scale;
+                for (int col = 0; col < w.cols; col++)
+                    this.weights[l][row * w.cols + col] = (byte) Math.round(w.get(row, col) / weightScales[l][row]);
+            }
+            this.biases[l] = new double[biases[l].size()];
+            System.arraycopy(biases[l].data, biases[l].offset, this.biases[l], 0, biases[l].size());
+            this.inputSizes[l] = w.cols;
+        }
+        buffers = new ThreadLocal<Buffers>() {
+            @Override
+            protected Buffers initialValue() {
+                return new Buffers(inputSizes, QuantizedInferenceModel.this.biases);
+            }
+        };
+    }
+
+    /**
+     * Get the scale which maps the largest magnitude of a range of values to the largest quantized value.
+     *
+     * @param values The array holding the values.
+     * @param offset The index of the first value.
+     * @param length The number of values.
+     * @return The scale, which is 1 if every value is zero.
+     */
+    private static double scale(double[] values, int offset, int length) {
+        double max = 0;
+        for (int i = offset; i < offset + length; i++)
+            max = Math.max(max, Math.abs(values[i]));
+        return max == 0 ? 1 : max / MAX_QUANTIZED;
+    }
+
+    /**
+     * Make a prediction without allocating, using the buffers of the calling thread.
+     *
+     * @param input  The input of the model.
+     * @param output The array to copy the prediction into.
+     */
+    public void predict(double[] input, double[] output) {
+        if (output.length != getOutputSize()) {
+            throw new InvalidParameterException("Output size did not match the output size of the last layer");
+        }
+        double[] prediction = feedForward(input);
+        System.arraycopy(prediction, 0, output, 0, output.length);
+    }
+
+    public Matrix predict(double... input) {
+        double[] output = feedForward(input);
+        Matrix prediction = new Matrix(output.length, 1);
+        for (int i = 0; i < output.length; i++)
+            prediction.set(i, 0, output[i]);
+        return prediction;
+    }
+
+    public Matrix predict(Matrix input) {
+        input = input.transpose();
+        if (input.getNumRows() != getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        double[] sample = new double[getInputSize()];
+        Matrix prediction = new Matrix(getOutputSize(), input.getNumCols());
+        for (int col = 0; col < input.getNumCols(); col++) {
+            for (int row = 0; row < sample.length; row++)
+                sample[row] = input.get(row, col);
+            double[] output = feedForward(sample);
+            for (int row = 0; row < output.length; row++)
+                prediction.set(row, col, output[row]);
+        }
+        return prediction;
+    }
+
+    public double train(Matrix[] input, Matrix[] output) {
+        throw new UnsupportedOperationException("An inference model can not be trained, train the NN it was created from");
+    }
+
+    /**
+     * Measure how much accuracy was lost by quantizing a model, using argmax accuracy.
+     *
+     * @param original The model this model was quantized from.
+     * @param input    The input of each sample.
+     * @param output   The desired output of each sample in the same order as the input.
+     * @return The accuracy of the original model minus the accuracy of this model, from [-1, 1].
+     */
+    public double accuracyLoss(MachineLearningAlgorithm original, Matrix[] input, Matrix[] output) {
+        return original.accuracy(input, output, true) - accuracy(input, output, true);
+    }
+
+    /**
+     * Get the input size of the first layer.
+     *
+     * @return The size of the input.
+     */
+    public int getInputSize() {
+        return inputSizes[0];
+    }
+
+    /**
+     * Get the output size of the last layer.
+     *
+     * @return The size of the output.
+     */
+    public int getOutputSize() {
+        return biases[biases.length - 1].length;
+    }
+
+    /**
+     * Run a single sample through every layer using the buffers of the calling thread.
+     *
+     * @param input The input to the model.
+     * @return The output buffer of the last layer, which is overwritten by the next call on this thread.
+     */
+    private double[] feedForward(double[] input) {
+        if (input.length != getInputSize()) {
+            throw new InvalidParameterException("Input size did not match the input size of the first layer");
+        }
+        Buffers b = buffers.get();
+        double[] layerInput = input;
+        for (int l = 0; l < weights.length; l++) {
+            activate(l, layerInput, b.quantized, b.outputs[l]);
+            layerInput = b.outputs[l];
+        }
+        return layerInput;
+    }
+
+    private void activate(int layer, double[] input, byte[] quantized, double[] output) {
+        int cols = inputSizes[layer];
+        double inputScale = scale(input, 0, cols);
+        for (int col = 0; col < cols; col++)
+            quantized[col] = (byte) Math.round(input[col] / inputScale);
+        byte[] w = weights[layer];
+        float[] scales = weightScales[layer];
+        double[] bias = biases[layer];
+        for (int row = 0; row < output.length; row++) {
+            int offset = row * cols;
+            int sum = 0;
+            for (int col = 0; col < cols; col++)
+                sum += w[offset + col] * quantized[col];
+            output[row] = sum * (scales[row] * inputScale) + bias[row];
+        }
+        Kernels.INSTANCE.activate(functions[layer], output, output, output.length);
+    }
+
+    /**
+     * The buffers of a single thread: the quantized input of the current layer, and the output of every layer. The
+     * buffers are stored in a thread local of the model, so they must not reference the model or it is never
+     * collected.
+     */
+    private static class Buffers {
+        private final byte[] quantized;
+        private final double[][] outputs;
+
+        /**
+         * Create the buffers for a model.
+         *
+         * @param inputSizes The input size of each layer.
+         * @param biases     The bias of each layer, which gives the output size of the layer.
+         */
+        Buffers(int[] inputSizes, double[][] biases) {
+            int largestInput = 0;
+            for (int size : inputSizes)
+                largestInput = Math.max(largestInput, size);
+            quantized = new byte[largestInput];
+            outputs = new double[biases.length][];
+            for (int l = 0; l < biases.length; l++)
+                outputs[l] = new double[biases[l].length];
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.kylecorry.lann;
+
+import java.security.InvalidParameterException;
+
+/**
+ * An immutable matrix of doubles in compressed sparse row (CSR) format, which only stores the values that are not
+ * zero. It is used by inference models for layers whose weights were mostly pruned, so the matrix-vector product skips
+ * the zeros.
+ */
+final class SparseTensor {
+
+    final int rows, cols;
+    private final double[] values;
+    private final int[] columns;
+    private final int[] rowStarts;
+
+    /**
+     * Create a sparse copy of a dense tensor.
+     *
+     * @param dense The tensor to copy.
+     */
+    SparseTensor(Tensor dense) {
+        rows = dense.rows;
+        cols = dense.cols;
+        int nonZeros = countNonZeros(dense);
+        values = new double[nonZeros];
+        columns = new int[nonZeros];
+        rowStarts = new int[rows + 1];
+        int k = 0;
+        for (int r = 0; r < rows; r++) {
+            rowStarts[r] = k;
+            for (int c = 0; c < cols; c++) {
+                double value = dense.get(r, c);
+                if (value != 0) {
+                    values[k] = value;
+                    columns[k] = c;
+                    k++;
+                }
+            }
+        }
+        rowStarts[rows] = k;
+    }
+
+    /**
+     * Get the fraction of the values of a tensor which are not zero.
+     *
+     * @param tensor The tensor.
+     * @return The density from [0, 1].
+     */
+    static double density(Tensor tensor) {
+        return tensor.size() == 0 ? 0 : countNonZeros(tensor) / (double) tensor.size();
+    }
+
+    private static int countNonZeros(Tensor tensor) {
+        int count = 0;
+        for (int i = tensor.offset; i < tensor.offset + tensor.size(); i++)
+            if (tensor.data[i] != 0)
+                count++;
+        return count;
+    }
+
+    /**
+     * Compute y = A*x, visiting only the stored values.
+     *
+     * @param x The vector x of length cols.
+     * @param y The vector y of length rows, which is overwritten.
+     */
+    void gemv(double[] x, double[] y) {
+        if (cols != x.length || rows != y.length) {
+            throw new InvalidParameterException("Vector sizes did not match the tensor");
+        }
+        for (int r = 0; r < rows; r++) {
+            double sum = 0;
+            for (int k = rowStarts[r]; k < rowStarts[r + 1]; k++)
+                sum += values[k] * x[columns[k]];
+            y[r] = sum;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A data set which lazily pulls samples from a stream, such as the lines of a file or a generator, and groups them into
+ * batches. Only one batch is held in memory at a time. The stream of each pass is closed once its last batch was read,
+ * or when the pass is closed with {@link Dataset#close(Iterator)}, so streams such as Files.lines release their file.
+ */
+public class StreamDataset implements Dataset {
+
+    private Supplier<? extends Stream<Batch>> source;
+    private int batchSize;
+
+    /**
+     * Create a data set from a stream of samples.
+     *
+     * @param source    Creates a new stream of the samples for each pass over the data set. Each element can hold one
+     *                  or more samples.
+     * @param batchSize The number of samples per batch.
+     */
+    public StreamDataset(Supplier<? extends Stream<Batch>> source, int batchSize) {
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Batch size must be at least 1");
+        }
+        this.source = source;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public CloseableIterator iterator() {
+        final Stream<Batch> stream = source.get();
+        final Iterator<Batch> samples = stream.iterator();
+        return new CloseableIterator() {
+            private Batch pending;
+            private int pendingPosition;
+            private boolean closed;
+
+            @Override
+            public boolean hasNext() {
+                while (!closed && (pending == null || pendingPosition == pending.size()) && samples.hasNext()) {
+                    pending = samples.next();
+                    pendingPosition = 0;
+                }
+                boolean hasNext = pending != null && pendingPosition < pending.size();
+                if (!hasNext) {
+                    close();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Batch next() {
+                Matrix[] input = new Matrix[batchSize];
+                Matrix[] output = new Matrix[batchSize];
+                int size = 0;
+                while (size < batchSize && hasNext()) {
+                    int count = Math.min(batchSize - size, pending.size() - pendingPosition);
+                    System.arraycopy(pending.getInput(), pendingPosition, input, size, count);
+                    System.arraycopy(pending.getOutput(), pendingPosition, output, size, count);
+                    pendingPosition += count;
+                    size += count;
+                }
+                if (size == 0) {
+                    throw new NoSuchElementException();
+                }
+                if (size < batchSize)
+                    return new Batch(Arrays.copyOf(input, size), Arrays.copyOf(output, size));
+                return new Batch(input, output);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    pending = null;
+                    stream.close();
+                }
+            }
+        };
+    }
+}
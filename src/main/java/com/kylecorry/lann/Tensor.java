@@ -0,0 +1,244 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.matrix.Matrix;
+
+import java.security.InvalidParameterException;
+
+/**
+ * A dense, row-major matrix of doubles backed by a flat array, used internally by the neural network layers. Unlike
+ * {@link Matrix}, the operations write into an existing tensor instead of allocating a new one.
+ */
+final class Tensor {
+
+    /**
+     * The size of the square blocks used by the matrix multiplications to stay within the cache.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    final double[] data;
+    final int offset, rows, cols;
+
+    /**
+     * Create a tensor filled with zeros.
+     *
+     * @param rows The number of rows.
+     * @param cols The number of columns.
+     */
+    Tensor(int rows, int cols) {
+        this(new double[rows * cols], 0, rows, cols);
+    }
+
+    /**
+     * Create a tensor which views part of an array. Changes to the tensor are written to the array.
+     *
+     * @param data   The array which stores the values in row-major order.
+     * @param offset The index of the first value in the array.
+     * @param rows   The number of rows.
+     * @param cols   The number of columns.
+     */
+    Tensor(double[] data, int offset, int rows, int cols) {
+        if (offset < 0 || offset + rows * cols > data.length) {
+            throw new InvalidParameterException("Tensor does not fit within the array");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Create a matrix with the values of this tensor.
+     *
+     * @return A new matrix.
+     */
+    Matrix toMatrix() {
+        Matrix matrix = new Matrix(rows, cols);
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                matrix.set(r, c, get(r, c));
+        return matrix;
+    }
+
+    double get(int row, int col) {
+        return data[offset + row * cols + col];
+    }
+
+    void set(int row, int col, double value) {
+        data[offset + row * cols + col] = value;
+    }
+
+    /**
+     * Get the number of values in the tensor.
+     *
+     * @return The number of rows times the number of columns.
+     */
+    int size() {
+        return rows * cols;
+    }
+
+    /**
+     * Create a copy of the tensor with its own array.
+     *
+     * @return A new tensor.
+     */
+    Tensor copy() {
+        Tensor copy = new Tensor(rows, cols);
+        System.arraycopy(data, offset, copy.data, 0, size());
+        return copy;
+    }
+
+    /**
+     * Set every value of the tensor.
+     *
+     * @param value The value.
+     */
+    void fill(double value) {
+        for (int i = offset; i < offset + size(); i++)
+            data[i] = value;
+    }
+
+    /**
+     * Add the values of another tensor of the same size to this tensor.
+     *
+     * @param other The tensor to add.
+     */
+    void add(Tensor other) {
+        checkSize(other.rows, other.cols);
+        for (int i = 0; i < size(); i++)
+            data[offset + i] += other.data[other.offset + i];
+    }
+
+    /**
+     * Subtract the values of another tensor of the same size from this tensor.
+     *
+     * @param other The tensor to subtract.
+     */
+    void subtract(Tensor other) {
+        checkSize(other.rows, other.cols);
+        for (int i = 0; i < size(); i++)
+            data[offset + i] -= other.data[other.offset + i];
+    }
+
+    /**
+     * Multiply each value of this tensor by the matching value of another tensor of the same size.
+     *
+     * @param other The tensor to multiply by.
+     */
+    void multiply(Tensor other) {
+        checkSize(other.rows, other.cols);
+        for (int i = 0; i < size(); i++)
+            data[offset + i] *= other.data[other.offset + i];
+    }
+
+    /**
+     * Compute C = A*B.
+     *
+     * @param a The m x k tensor A.
+     * @param b The k x n tensor B.
+     * @param c The m x n tensor C, which is overwritten.
+     */
+    static void gemm(Tensor a, Tensor b, Tensor c) {
+        if (a.cols != b.rows) {
+            throw new InvalidParameterException("Inner dimensions did not match");
+        }
+        c.checkSize(a.rows, b.cols);
+        c.fill(0);
+        for (int i0 = 0; i0 < a.rows; i0 += BLOCK_SIZE) {
+            int i1 = Math.min(i0 + BLOCK_SIZE, a.rows);
+            for (int k0 = 0; k0 < a.cols; k0 += BLOCK_SIZE) {
+                int k1 = Math.min(k0 + BLOCK_SIZE, a.cols);
+                for (int j0 = 0; j0 < b.cols; j0 += BLOCK_SIZE) {
+                    int j1 = Math.min(j0 + BLOCK_SIZE, b.cols);
+                    for (int i = i0; i < i1; i++) {
+                        int cRow = c.offset + i * c.cols;
+                        int aRow = a.offset + i * a.cols;
+                        for (int k = k0; k < k1; k++) {
+                            int bRow = b.offset + k * b.cols;
+                            Kernels.INSTANCE.axpy(a.data[aRow + k], b.data, bRow + j0, c.data, cRow + j0, j1 - j0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute C = A^T*B without transposing A.
+     *
+     * @param a The k x m tensor A.
+     * @param b The k x n tensor B.
+     * @param c The m x n tensor C, which is overwritten.
+     */
+    static void gemmTransposeA(Tensor a, Tensor b, Tensor c) {
+        if (a.rows != b.rows) {
+            throw new InvalidParameterException("Inner dimensions did not match");
+        }
+        c.checkSize(a.cols, b.cols);
+        c.fill(0);
+        for (int k0 = 0; k0 < a.rows; k0 += BLOCK_SIZE) {
+            int k1 = Math.min(k0 + BLOCK_SIZE, a.rows);
+            for (int i0 = 0; i0 < a.cols; i0 += BLOCK_SIZE) {
+                int i1 = Math.min(i0 + BLOCK_SIZE, a.cols);
+                for (int j0 = 0; j0 < b.cols; j0 += BLOCK_SIZE) {
+                    int j1 = Math.min(j0 + BLOCK_SIZE, b.cols);
+                    for (int k = k0; k < k1; k++) {
+                        int aRow = a.offset + k * a.cols;
+                        int bRow = b.offset + k * b.cols;
+                        for (int i = i0; i < i1; i++) {
+                            int cRow = c.offset + i * c.cols;
+                            Kernels.INSTANCE.axpy(a.data[aRow + i], b.data, bRow + j0, c.data, cRow + j0, j1 - j0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute C = A*B^T without transposing B.
+     *
+     * @param a The m x k tensor A.
+     * @param b The n x k tensor B.
+     * @param c The m x n tensor C, which is overwritten.
+     */
+    static void gemmTransposeB(Tensor a, Tensor b, Tensor c) {
+        if (a.cols != b.cols) {
+            throw new InvalidParameterException("Inner dimensions did not match");
+        }
+        c.checkSize(a.rows, b.rows);
+        for (int i0 = 0; i0 < a.rows; i0 += BLOCK_SIZE) {
+            int i1 = Math.min(i0 + BLOCK_SIZE, a.rows);
+            for (int j0 = 0; j0 < b.rows; j0 += BLOCK_SIZE) {
+                int j1 = Math.min(j0 + BLOCK_SIZE, b.rows);
+                for (int i = i0; i < i1; i++) {
+                    int aRow = a.offset + i * a.cols;
+                    int cRow = c.offset + i * c.cols;
+                    for (int j = j0; j < j1; j++)
+                        c.data[cRow + j] = Kernels.INSTANCE.dot(a.data, aRow, b.data, b.offset + j * b.cols, a.cols);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute y = A*x.
+     *
+     * @param a The m x n tensor A.
+     * @param x The vector x of length n.
+     * @param y The vector y of length m, which is overwritten.
+     */
+    static void gemv(Tensor a, double[] x, double[] y) {
+        if (a.cols != x.length || a.rows != y.length) {
+            throw new InvalidParameterException("Vector sizes did not match the tensor");
+        }
+        for (int i = 0; i < a.rows; i++)
+            y[i] = Kernels.INSTANCE.dot(a.data, a.offset + i * a.cols, x, 0, a.cols);
+    }
+
+    private void checkSize(int rows, int cols) {
+        if (this.rows != rows || this.cols != cols) {
+            throw new InvalidParameterException("Tensor size did not match, expected " + rows + "x" + cols
+                    + " but was " + this.rows + "x" + this.cols);
+        }
+    }
+}
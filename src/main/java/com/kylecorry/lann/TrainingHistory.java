@@ -0,0 +1,64 @@
+package com.kylecorry.lann;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the metrics of every training iteration, so that the loss and throughput can be inspected after fitting.
+ */
+public class TrainingHistory implements TrainingListener {
+
+    private List<Epoch> epochs = new ArrayList<>();
+
+    @Override
+    public void onEpochEnd(Epoch epoch) {
+        epochs.add(epoch);
+    }
+
+    /**
+     * Get the metrics of every training iteration.
+     *
+     * @return The iterations in the order they were trained.
+     */
+    public List<Epoch> getEpochs() {
+        return Collections.unmodifiableList(epochs);
+    }
+
+    /**
+     * Get the lowest loss of any training iteration.
+     *
+     * @return The lowest loss, or positive infinity if no iterations were recorded.
+     */
+    public double getBestLoss() {
+        double best = Double.POSITIVE_INFINITY;
+        for (Epoch epoch : epochs)
+            best = Math.min(best, epoch.getLoss());
+        return best;
+    }
+
+    /**
+     * Get the total time taken by every training iteration.
+     *
+     * @return The wall time in nanoseconds.
+     */
+    public long getTotalWallTimeNanos() {
+        long total = 0;
+        for (Epoch epoch : epochs)
+            total += epoch.getWallTimeNanos();
+        return total;
+    }
+
+    /**
+     * Get the training throughput over every training iteration.
+     *
+     * @return The number of samples trained on per second.
+     */
+    public double getSamplesPerSecond() {
+        long samples = 0;
+        for (Epoch epoch : epochs)
+            samples += epoch.getSamples();
+        long time = getTotalWallTimeNanos();
+        return time == 0 ? 0 : samples * 1e9 / time;
+    }
+}
@@ -0,0 +1,109 @@
+package com.kylecorry.lann;
+
+/**
+ * Receives the progress of a machine learning algorithm while it is being fit.
+ */
+public interface TrainingListener {
+
+    /**
+     * Called after each training iteration over the whole data set.
+     *
+     * @param epoch The metrics of the iteration.
+     */
+    void onEpochEnd(Epoch epoch);
+
+    class Epoch {
+        private int index;
+        private double loss;
+        private long wallTimeNanos;
+        private int samples;
+        private double gradientNorm;
+        private double validationLoss;
+
+        protected Epoch(int index, double loss, long wallTimeNanos, int samples, double gradientNorm) {
+            this(index, loss, wallTimeNanos, samples, gradientNorm, Double.NaN);
+        }
+
+        protected Epoch(int index, double loss, long wallTimeNanos, int samples, double gradientNorm,
+                        double validationLoss) {
+            this.index = index;
+            this.loss = loss;
+            this.wallTimeNanos = wallTimeNanos;
+            this.samples = samples;
+            this.gradientNorm = gradientNorm;
+            this.validationLoss = validationLoss;
+        }
+
+        /**
+         * Get the index of the iteration, starting at 0.
+         *
+         * @return The index of the iteration.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the error of the iteration, as returned by train.
+         *
+         * @return The error.
+         */
+        public double getLoss() {
+            return loss;
+        }
+
+        /**
+         * Get the time taken by the iteration.
+         *
+         * @return The wall time in nanoseconds.
+         */
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+
+        /**
+         * Get the number of samples trained on during the iteration.
+         *
+         * @return The number of samples.
+         */
+        public int getSamples() {
+            return samples;
+        }
+
+        /**
+         * Get the training throughput of the iteration.
+         *
+         * @return The number of samples trained on per second.
+         */
+        public double getSamplesPerSecond() {
+            return wallTimeNanos == 0 ? 0 : samples * 1e9 / wallTimeNanos;
+        }
+
+        /**
+         * Get the L2 norm of the averaged gradient of the last weight update in the iteration.
+         *
+         * @return The gradient norm, or NaN if the algorithm does not report it.
+         */
+        public double getGradientNorm() {
+            return gradientNorm;
+        }
+
+        /**
+         * Get the error on the validation data after the iteration, as returned by evaluate.
+         *
+         * @return The validation error, or NaN if there is no validation data.
+         */
+        public double getValidationLoss() {
+            return validationLoss;
+        }
+
+        @Override
+        public String toString() {
+            String epoch = String.format("Epoch %d: loss %.6g, %.1f ms, %.0f samples/s, gradient norm %.4g", index,
+                    loss, wallTimeNanos / 1e6, getSamplesPerSecond(), gradientNorm);
+            if (!Double.isNaN(validationLoss))
+                epoch += String.format(", validation loss %.6g", validationLoss);
+            return epoch;
+        }
+    }
+}
@@ -18,4 +18,44 @@ public interface Activation {
 	 * @return The result of applying the function to the input.
 	 */
 	public double derivative(double x);
+
+	/**
+	 * Apply the activation function to the first n values of an array. The
+	 * built in activation functions override this with a loop the JIT can
+	 * vectorize, custom ones fall back to calling activate for each value.
+	 * 
+	 * @param in
+	 *            The inputs to the function.
+	 * @param out
+	 *            The array to write the results into, which may be the input
+	 *            array.
+	 * @param n
+	 *            The number of values.
+	 */
+	public default void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = activate(in[i]);
+	}
+
+	/**
+	 * Calculate the derivative of the activation function for the first n
+	 * values of an array, reusing the outputs of the function which were
+	 * already calculated during the forward pass. The built in activation
+	 * functions derive it from the output alone where they can, which avoids
+	 * evaluating the function again.
+	 * 
+	 * @param in
+	 *            The inputs to the function.
+	 * @param activated
+	 *            The outputs of the function for the inputs.
+	 * @param out
+	 *            The array to write the derivatives into, which may be either
+	 *            of the other arrays.
+	 * @param n
+	 *            The number of values.
+	 */
+	public default void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = derivative(in[i]);
+	}
 }
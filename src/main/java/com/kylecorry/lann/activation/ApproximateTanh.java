@@ -0,0 +1,33 @@
+package com.kylecorry.lann.activation;
+
+/**
+ * A faster tanh which uses tanh(x) = 2 * sigmoid(2x) - 1 with the sigmoid
+ * lookup table, instead of evaluating Math.tanh. The output is within 6e-6 of
+ * {@link Tanh}, which suits latency-critical inference but adds noise to
+ * training.
+ */
+public class ApproximateTanh extends Tanh {
+
+	/**
+	 * The largest absolute difference from the exact tanh.
+	 */
+	public static final double MAX_ERROR = 6e-6;
+
+	@Override
+	public double activate(double x) {
+		return 2 * SigmoidTable.sigmoid(2 * x) - 1;
+	}
+
+	@Override
+	public double derivative(double x) {
+		double y = activate(x);
+		return 1 - y * y;
+	}
+
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = 2 * SigmoidTable.sigmoid(2 * in[i]) - 1;
+	}
+
+}
@@ -12,4 +12,16 @@ public class Binary implements Activation {
 		return 0;
 	}
 
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = in[i] > 0 ? 1 : 0;
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = 0;
+	}
+
 }
@@ -12,4 +12,16 @@ public class LeakyReLU implements Activation {
 		return x > 0 ? 1 : 0.01;
 	}
 
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = in[i] > 0 ? in[i] : 0.01 * in[i];
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = activated[i] > 0 ? 1 : 0.01;
+	}
+
 }
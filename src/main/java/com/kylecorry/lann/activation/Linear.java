@@ -13,4 +13,16 @@ public class Linear implements Activation {
 		return 1;
 	}
 
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		if (in != out)
+			System.arraycopy(in, 0, out, 0, n);
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = 1;
+	}
+
 }
@@ -12,4 +12,16 @@ public class ReLU implements Activation {
 		return x > 0 ? 1 : 0;
 	}
 
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = Math.max(0, in[i]);
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = activated[i] > 0 ? 1 : 0;
+	}
+
 }
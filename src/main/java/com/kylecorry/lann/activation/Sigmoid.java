@@ -4,12 +4,25 @@ public class Sigmoid implements Activation {
 
 	@Override
 	public double activate(double x) {
-		return 1d / (1 + Math.pow(Math.E, -x));
+		return 1d / (1 + Math.exp(-x));
 	}
 
 	@Override
 	public double derivative(double x) {
-		return activate(x) * (1 - activate(x));
+		double y = activate(x);
+		return y * (1 - y);
+	}
+
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = 1d / (1 + Math.exp(-in[i]));
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = activated[i] * (1 - activated[i]);
 	}
 
 }
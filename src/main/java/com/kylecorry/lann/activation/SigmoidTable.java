@@ -0,0 +1,34 @@
+package com.kylecorry.lann.activation;
+
+/**
+ * A lookup table of the sigmoid function with linear interpolation, shared by
+ * the approximate activation functions. The table covers [-16, 16] in steps of
+ * 1/64, which bounds the interpolation error by h^2/8 * max|sigmoid''| =
+ * 2.9e-6, and the sigmoid is within 1.2e-7 of 0 or 1 outside of it.
+ */
+final class SigmoidTable {
+
+	private static final double MIN = -16;
+	private static final int STEPS_PER_UNIT = 64;
+	private static final int STEPS = 32 * STEPS_PER_UNIT;
+	private static final double[] TABLE = new double[STEPS + 1];
+
+	static {
+		for (int i = 0; i <= STEPS; i++)
+			TABLE[i] = 1d / (1 + Math.exp(-(MIN + i / (double) STEPS_PER_UNIT)));
+	}
+
+	private SigmoidTable() {
+	}
+
+	static double sigmoid(double x) {
+		double position = (x - MIN) * STEPS_PER_UNIT;
+		if (position <= 0)
+			return TABLE[0];
+		if (position >= STEPS)
+			return TABLE[STEPS];
+		int i = (int) position;
+		double fraction = position - i;
+		return TABLE[i] + fraction * (TABLE[i + 1] - TABLE[i]);
+	}
+}
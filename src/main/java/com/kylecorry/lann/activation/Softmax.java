@@ -1,15 +1,141 @@
 package com.kylecorry.lann.activation;
 
+import java.util.Arrays;
+
+/**
+ * The softmax, which turns the outputs of a layer into probabilities that sum
+ * to one. Unlike the other activation functions it depends on every output of
+ * the layer, so the neural network applies it to whole vectors with
+ * {@link #activate(double[], double[], int)} and
+ * {@link #activateColumns(double[], double[], int, int)}. The largest input is
+ * subtracted before the exponential, so large inputs do not overflow.
+ */
 public class Softmax implements Activation {
 
+	/**
+	 * The unnormalized softmax of a single input.
+	 * 
+	 * @param x
+	 *            The input to function.
+	 * @return e^x.
+	 */
 	@Override
 	public double activate(double x) {
-		return Math.pow(Math.E, x);
+		return Math.exp(x);
 	}
 
+	/**
+	 * The softmax has no derivative of a single input, since each output
+	 * depends on every input of the layer.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             Always, use
+	 *             {@link #backwardColumns(double[], double[], int, int)}
+	 *             instead.
+	 */
 	@Override
 	public double derivative(double x) {
-		return Math.pow(Math.E, x) - x;
+		throw new UnsupportedOperationException(
+				"The softmax depends on every input of the layer, use backwardColumns to compute its gradient");
+	}
+
+	/**
+	 * Apply the softmax to a vector.
+	 * 
+	 * @param in
+	 *            The vector.
+	 * @param out
+	 *            The array to write the probabilities into, which may be the
+	 *            input array.
+	 * @param n
+	 *            The length of the vector.
+	 */
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+			max = Math.max(max, in[i]);
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			out[i] = Math.exp(in[i] - max);
+			sum += out[i];
+		}
+		double scale = 1 / sum;
+		for (int i = 0; i < n; i++)
+			out[i] *= scale;
+	}
+
+	/**
+	 * Apply the softmax to each column of a row-major matrix, such as a batch
+	 * with one sample per column. The rows are read in order, so the batch is
+	 * processed without strided access.
+	 * 
+	 * @param in
+	 *            The matrix.
+	 * @param out
+	 *            The array to write the probabilities into, which may be the
+	 *            input array.
+	 * @param rows
+	 *            The number of rows, the length of each vector.
+	 * @param cols
+	 *            The number of columns, the number of vectors.
+	 */
+	public void activateColumns(double[] in, double[] out, int rows, int cols) {
+		double[] max = new double[cols];
+		double[] sum = new double[cols];
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < cols; c++)
+				max[c] = Math.max(max[c], in[r * cols + c]);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				double e = Math.exp(in[r * cols + c] - max[c]);
+				out[r * cols + c] = e;
+				sum[c] += e;
+			}
+		}
+		for (int c = 0; c < cols; c++)
+			sum[c] = 1 / sum[c];
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < cols; c++)
+				out[r * cols + c] *= sum[c];
+	}
+
+	/**
+	 * The diagonal of the Jacobian of the softmax, y * (1 - y). The full
+	 * gradient is computed by
+	 * {@link #backwardColumns(double[], double[], int, int)}.
+	 */
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = activated[i] * (1 - activated[i]);
+	}
+
+	/**
+	 * Turn the gradient of the loss with respect to the output of the softmax
+	 * into the gradient with respect to its input, for each column of a
+	 * row-major matrix. This is dx = y * (dy - sum(dy * y)), which needs
+	 * neither the Jacobian nor another exponential.
+	 * 
+	 * @param activated
+	 *            The output of the softmax.
+	 * @param gradient
+	 *            The gradient with respect to the output, which is overwritten
+	 *            with the gradient with respect to the input.
+	 * @param rows
+	 *            The number of rows, the length of each vector.
+	 * @param cols
+	 *            The number of columns, the number of vectors.
+	 */
+	public void backwardColumns(double[] activated, double[] gradient, int rows, int cols) {
+		double[] dot = new double[cols];
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < cols; c++)
+				dot[c] += gradient[r * cols + c] * activated[r * cols + c];
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < cols; c++)
+				gradient[r * cols + c] = activated[r * cols + c] * (gradient[r * cols + c] - dot[c]);
 	}
 
 }
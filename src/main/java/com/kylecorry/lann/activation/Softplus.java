@@ -4,12 +4,25 @@ public class Softplus implements Activation {
 
 	@Override
 	public double activate(double x) {
-		return Math.log(1 + Math.pow(Math.E, x));
+		return Math.log(1 + Math.exp(x));
 	}
 
 	@Override
 	public double derivative(double x) {
-		return 1d / (1 + Math.pow(Math.E, -x));
+		return 1d / (1 + Math.exp(-x));
+	}
+
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = Math.log(1 + Math.exp(in[i]));
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		// The derivative is the sigmoid, which is 1 - e^-y when y = ln(1 + e^x)
+		for (int i = 0; i < n; i++)
+			out[i] = 1 - Math.exp(-activated[i]);
 	}
 
 }
@@ -9,7 +9,20 @@ public class Tanh implements Activation {
 
 	@Override
 	public double derivative(double x) {
-		return 1 - Math.pow(Math.tanh(x), 2);
+		double y = Math.tanh(x);
+		return 1 - y * y;
+	}
+
+	@Override
+	public void activate(double[] in, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = Math.tanh(in[i]);
+	}
+
+	@Override
+	public void derivativeFromOutput(double[] in, double[] activated, double[] out, int n) {
+		for (int i = 0; i < n; i++)
+			out[i] = 1 - activated[i] * activated[i];
 	}
 
 }
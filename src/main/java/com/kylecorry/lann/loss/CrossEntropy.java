@@ -0,0 +1,23 @@
+package com.kylecorry.lann.loss;
+
+/**
+ * The categorical cross entropy, for outputs which are probabilities.
+ */
+public class CrossEntropy implements Loss {
+
+	/**
+	 * The smallest predicted probability, which keeps the loss finite.
+	 */
+	static final double EPSILON = 1e-15;
+
+	@Override
+	public double loss(double predicted, double expected) {
+		return -expected * Math.log(Math.max(predicted, EPSILON));
+	}
+
+	@Override
+	public double derivative(double predicted, double expected) {
+		return -expected / Math.max(predicted, EPSILON);
+	}
+
+}
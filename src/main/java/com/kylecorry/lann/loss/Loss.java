@@ -0,0 +1,26 @@
+package com.kylecorry.lann.loss;
+
+public interface Loss {
+	/**
+	 * The loss of a single output of the network. The loss of a sample is the
+	 * sum of the loss of each of its outputs.
+	 * 
+	 * @param predicted
+	 *            The output of the network.
+	 * @param expected
+	 *            The desired output.
+	 * @return The loss.
+	 */
+	public double loss(double predicted, double expected);
+
+	/**
+	 * The derivative of the loss with respect to the output of the network.
+	 * 
+	 * @param predicted
+	 *            The output of the network.
+	 * @param expected
+	 *            The desired output.
+	 * @return The derivative of the loss.
+	 */
+	public double derivative(double predicted, double expected);
+}
@@ -0,0 +1,22 @@
+package com.kylecorry.lann.loss;
+
+/**
+ * The categorical cross entropy of a Softmax output layer. The derivative is
+ * taken with respect to the input of the Softmax instead of its output, which
+ * simplifies to the predicted minus the expected output, so the derivative of
+ * the Softmax is never computed. This can only be used when the output layer
+ * has a Softmax activation.
+ */
+public class SoftmaxCrossEntropy implements Loss {
+
+	@Override
+	public double loss(double predicted, double expected) {
+		return -expected * Math.log(Math.max(predicted, CrossEntropy.EPSILON));
+	}
+
+	@Override
+	public double derivative(double predicted, double expected) {
+		return predicted - expected;
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.kylecorry.lann.loss;
+
+/**
+ * Half of the squared error, the loss used for regression.
+ */
+public class SquaredError implements Loss {
+
+	@Override
+	public double loss(double predicted, double expected) {
+		double error = predicted - expected;
+		return 0.5 * error * error;
+	}
+
+	@Override
+	public double derivative(double predicted, double expected) {
+		return predicted - expected;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.kylecorry.lann.optimizer;
+
+/**
+ * Adam, which moves each parameter along a running average of its gradients,
+ * scaled by a running average of its squared gradients. Both averages are bias
+ * corrected, so the first updates are not too small.
+ */
+public class Adam implements Optimizer {
+
+	private final double beta1, beta2, epsilon;
+
+	/**
+	 * Create an Adam optimizer.
+	 * 
+	 * @param beta1
+	 *            The decay of the average of the gradients, between 0 and 1.
+	 * @param beta2
+	 *            The decay of the average of the squared gradients, between 0
+	 *            and 1.
+	 * @param epsilon
+	 *            A small value which keeps the scaled step finite.
+	 */
+	public Adam(double beta1, double beta2, double epsilon) {
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Create an Adam optimizer with the commonly used decays of 0.9 and 0.999.
+	 */
+	public Adam() {
+		this(0.9, 0.999, 1e-8);
+	}
+
+	@Override
+	public State createState(int size) {
+		final double[] mean = new double[size], meanSquare = new double[size];
+		return new State() {
+			private double beta1Power = 1, beta2Power = 1;
+
+			@Override
+			public void update(double[] parameters, int offset, double[] gradients, int gradientOffset,
+					double learningRate) {
+				beta1Power *= beta1;
+				beta2Power *= beta2;
+				// Fold both bias corrections into the step size
+				double stepSize = learningRate * Math.sqrt(1 - beta2Power) / (1 - beta1Power);
+				for (int i = 0; i < mean.length; i++) {
+					double gradient = gradients[gradientOffset + i];
+					mean[i] = beta1 * mean[i] + (1 - beta1) * gradient;
+					meanSquare[i] = beta2 * meanSquare[i] + (1 - beta2) * gradient * gradient;
+					parameters[offset + i] -= stepSize * mean[i] / (Math.sqrt(meanSquare[i]) + epsilon);
+				}
+			}
+		};
+	}
+
+}
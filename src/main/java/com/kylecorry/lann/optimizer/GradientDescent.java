@@ -0,0 +1,20 @@
+package com.kylecorry.lann.optimizer;
+
+/**
+ * Plain gradient descent, which moves each parameter against its gradient.
+ */
+public class GradientDescent implements Optimizer {
+
+	@Override
+	public State createState(final int size) {
+		return new State() {
+			@Override
+			public void update(double[] parameters, int offset, double[] gradients, int gradientOffset,
+					double learningRate) {
+				for (int i = 0; i < size; i++)
+					parameters[offset + i] -= learningRate * gradients[gradientOffset + i];
+			}
+		};
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.kylecorry.lann.optimizer;
+
+/**
+ * Gradient descent with momentum, which moves each parameter along a decaying
+ * sum of its past gradients.
+ */
+public class Momentum implements Optimizer {
+
+	private final double momentum;
+
+	/**
+	 * Create a momentum optimizer.
+	 * 
+	 * @param momentum
+	 *            The fraction of the previous velocity kept at each update,
+	 *            between 0 and 1.
+	 */
+	public Momentum(double momentum) {
+		this.momentum = momentum;
+	}
+
+	/**
+	 * Create a momentum optimizer which keeps 0.9 of the previous velocity.
+	 */
+	public Momentum() {
+		this(0.9);
+	}
+
+	@Override
+	public State createState(int size) {
+		final double[] velocity = new double[size];
+		return new State() {
+			@Override
+			public void update(double[] parameters, int offset, double[] gradients, int gradientOffset,
+					double learningRate) {
+				for (int i = 0; i < velocity.length; i++) {
+					velocity[i] = momentum * velocity[i] - learningRate * gradients[gradientOffset + i];
+					parameters[offset + i] += velocity[i];
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.kylecorry.lann.optimizer;
+
+public interface Optimizer {
+	/**
+	 * Create the state used to update one block of parameters, such as the
+	 * weights of a layer. The state is created once and reused by every update
+	 * of that block.
+	 * 
+	 * @param size
+	 *            The number of parameters in the block.
+	 * @return The state of the block.
+	 */
+	public State createState(int size);
+
+	/**
+	 * The update rule of a block of parameters, holding any buffers it needs
+	 * between updates.
+	 */
+	public interface State {
+		/**
+		 * Update the parameters of the block in place.
+		 * 
+		 * @param parameters
+		 *            The array holding the parameters.
+		 * @param offset
+		 *            The index of the first parameter in the array.
+		 * @param gradients
+		 *            The array holding the gradient of each parameter.
+		 * @param gradientOffset
+		 *            The index of the first gradient in the array.
+		 * @param learningRate
+		 *            The learning rate.
+		 */
+		public void update(double[] parameters, int offset, double[] gradients, int gradientOffset,
+				double learningRate);
+	}
+}
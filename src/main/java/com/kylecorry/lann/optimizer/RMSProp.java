@@ -0,0 +1,48 @@
+package com.kylecorry.lann.optimizer;
+
+/**
+ * RMSProp, which scales the learning rate of each parameter by a running
+ * average of its squared gradients.
+ */
+public class RMSProp implements Optimizer {
+
+	private final double decay, epsilon;
+
+	/**
+	 * Create an RMSProp optimizer.
+	 * 
+	 * @param decay
+	 *            The fraction of the running average kept at each update,
+	 *            between 0 and 1.
+	 * @param epsilon
+	 *            A small value which keeps the scaled step finite.
+	 */
+	public RMSProp(double decay, double epsilon) {
+		this.decay = decay;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * Create an RMSProp optimizer with a decay of 0.9.
+	 */
+	public RMSProp() {
+		this(0.9, 1e-8);
+	}
+
+	@Override
+	public State createState(int size) {
+		final double[] meanSquare = new double[size];
+		return new State() {
+			@Override
+			public void update(double[] parameters, int offset, double[] gradients, int gradientOffset,
+					double learningRate) {
+				for (int i = 0; i < meanSquare.length; i++) {
+					double gradient = gradients[gradientOffset + i];
+					meanSquare[i] = decay * meanSquare[i] + (1 - decay) * gradient * gradient;
+					parameters[offset + i] -= learningRate * gradient / (Math.sqrt(meanSquare[i]) + epsilon);
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.kylecorry.lann.schedule;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Lowers the learning rate along half a cosine wave, from the initial learning
+ * rate to a minimum learning rate over a fixed number of training iterations.
+ */
+public class CosineDecay implements LearningRateSchedule {
+
+	private final int iterations;
+	private final double minimum;
+
+	/**
+	 * Create a cosine decay schedule.
+	 * 
+	 * @param iterations
+	 *            The number of training iterations to reach the minimum
+	 *            learning rate in, after which it stays at the minimum. Must
+	 *            be at least 1.
+	 * @param minimum
+	 *            The minimum learning rate.
+	 */
+	public CosineDecay(int iterations, double minimum) {
+		if (iterations < 1) {
+			throw new InvalidParameterException("Iterations must be at least 1");
+		}
+		this.iterations = iterations;
+		this.minimum = minimum;
+	}
+
+	/**
+	 * Create a cosine decay schedule which reaches a learning rate of 0.
+	 * 
+	 * @param iterations
+	 *            The number of training iterations to reach 0 in.
+	 */
+	public CosineDecay(int iterations) {
+		this(iterations, 0);
+	}
+
+	@Override
+	public double getLearningRate(int iteration, double initialLearningRate) {
+		double progress = Math.min(iteration, iterations) / (double) iterations;
+		return minimum + (initialLearningRate - minimum) * (1 + Math.cos(Math.PI * progress)) / 2;
+	}
+
+}
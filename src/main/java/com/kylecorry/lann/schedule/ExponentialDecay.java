@@ -0,0 +1,27 @@
+package com.kylecorry.lann.schedule;
+
+/**
+ * Multiplies the learning rate by a constant factor after every training
+ * iteration.
+ */
+public class ExponentialDecay implements LearningRateSchedule {
+
+	private final double factor;
+
+	/**
+	 * Create an exponential decay schedule.
+	 * 
+	 * @param factor
+	 *            The factor the learning rate is multiplied by after each
+	 *            iteration, between 0 and 1.
+	 */
+	public ExponentialDecay(double factor) {
+		this.factor = factor;
+	}
+
+	@Override
+	public double getLearningRate(int iteration, double initialLearningRate) {
+		return initialLearningRate * Math.pow(factor, iteration);
+	}
+
+}
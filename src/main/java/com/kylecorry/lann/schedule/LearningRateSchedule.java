@@ -0,0 +1,14 @@
+package com.kylecorry.lann.schedule;
+
+public interface LearningRateSchedule {
+	/**
+	 * The learning rate to train a training iteration with.
+	 * 
+	 * @param iteration
+	 *            The index of the training iteration, starting at 0.
+	 * @param initialLearningRate
+	 *            The learning rate of the algorithm before fitting.
+	 * @return The learning rate.
+	 */
+	public double getLearningRate(int iteration, double initialLearningRate);
+}
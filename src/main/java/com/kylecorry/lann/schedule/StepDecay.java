@@ -0,0 +1,36 @@
+package com.kylecorry.lann.schedule;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Multiplies the learning rate by a constant factor every fixed number of
+ * training iterations.
+ */
+public class StepDecay implements LearningRateSchedule {
+
+	private final int stepSize;
+	private final double factor;
+
+	/**
+	 * Create a step decay schedule.
+	 * 
+	 * @param stepSize
+	 *            The number of training iterations between each decay, at
+	 *            least 1.
+	 * @param factor
+	 *            The factor the learning rate is multiplied by at each step.
+	 */
+	public StepDecay(int stepSize, double factor) {
+		if (stepSize < 1) {
+			throw new InvalidParameterException("Step size must be at least 1");
+		}
+		this.stepSize = stepSize;
+		this.factor = factor;
+	}
+
+	@Override
+	public double getLearningRate(int iteration, double initialLearningRate) {
+		return initialLearningRate * Math.pow(factor, iteration / stepSize);
+	}
+
+}
@@ -1,10 +1,29 @@
 package com.kylecorry.lann;
 
-import com.kylecorry.lann.activation.Sigmoid;
-import com.kylecorry.lann.activation.Softmax;
+import com.kylecorry.lann.activation.*;
+import com.kylecorry.lann.loss.SoftmaxCrossEntropy;
+import com.kylecorry.lann.optimizer.Adam;
+import com.kylecorry.lann.optimizer.Momentum;
+import com.kylecorry.lann.optimizer.Optimizer;
+import com.kylecorry.lann.optimizer.RMSProp;
+import com.kylecorry.lann.schedule.CosineDecay;
+import com.kylecorry.lann.schedule.StepDecay;
 import com.kylecorry.matrix.Matrix;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -40,4 +59,701 @@ public class Examples {
         assertEquals("Two", classifier.classify(new Matrix(100d, 2d)).getClassification());
 
     }
+
+    @Test
+    public void testMiniBatch() {
+        NN batched = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                .setRegularization(0.01).setBatchSize(2).build();
+        NN first = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                .setRegularization(0.01).build();
+        NN second = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                .setRegularization(0.01).build();
+        double[] initial = batched.getParameters();
+        first.setParameters(initial);
+        second.setParameters(initial);
+
+        Matrix[] input = {new Matrix(1d, 0.2d), new Matrix(0d, 1d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+        batched.train(input, output);
+        first.train(new Matrix[]{input[0]}, new Matrix[]{output[0]});
+        second.train(new Matrix[]{input[1]}, new Matrix[]{output[1]});
+
+        // Gradient descent is linear in the gradient, so a step on the averaged gradient of the batch lands halfway
+        // between the steps on each sample
+        double[] expected = first.getParameters();
+        double[] other = second.getParameters();
+        double[] actual = batched.getParameters();
+        for (int i = 0; i < actual.length; i++)
+            assertEquals((expected[i] + other[i]) / 2, actual[i], 1e-12);
+        assertEquals(false, Arrays.equals(initial, actual));
+    }
+
+    @Test
+    public void testInferenceModel() throws InterruptedException {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+        final InferenceModel model = testNet.toInferenceModel();
+        final Matrix expected = testNet.predict(100d, 2d);
+        final boolean[] matches = new boolean[4];
+
+        Thread[] threads = new Thread[matches.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean match = true;
+                    for (int i = 0; i < 1000; i++)
+                        match &= model.predict(100d, 2d).equals(expected);
+                    matches[index] = match;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean match : matches)
+            assertEquals(true, match);
+    }
+
+    @Test
+    public void testInferenceModelCanBeCollected() throws InterruptedException {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax()).build();
+        InferenceModel model = testNet.toInferenceModel();
+        model.predict(100d, 2d);
+        WeakReference<InferenceModel> reference = new WeakReference<>(model);
+        model = null;
+
+        // The buffers of this thread must not keep the model alive
+        assertEquals(true, isCollected(reference));
+    }
+
+    @Test
+    public void testQuantizedInferenceModelCanBeCollected() throws InterruptedException {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax()).build();
+        QuantizedInferenceModel model = testNet.toQuantizedInferenceModel(QuantizedInferenceModel.Granularity.PER_ROW);
+        model.predict(100d, 2d);
+        WeakReference<QuantizedInferenceModel> reference = new WeakReference<>(model);
+        model = null;
+
+        // The buffers of this thread must not keep the model alive
+        assertEquals(true, isCollected(reference));
+    }
+
+    private static boolean isCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return reference.get() == null;
+    }
+
+    @Test
+    public void testClassifyBatch() {
+        PersistentMachineLearningAlgorithm testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+
+        IClassifier<String> classifier = new Classifier<>(testNet, new String[]{"One", "Two", "Three"});
+        List<IClassifier.Classification<String>> classifications = classifier.classifyBatch(
+                new Matrix(new double[][]{{100d, 2d}, {0d, 10d}}));
+
+        assertEquals(2, classifications.size());
+        assertEquals(classifier.classify(new Matrix(100d, 2d)).getClassification(),
+                classifications.get(0).getClassification());
+        assertEquals(classifier.classify(new Matrix(0d, 10d)).getConfidence(),
+                classifications.get(1).getConfidence(), 1e-9);
+    }
+
+    @Test
+    public void testFloatInferenceModel() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+        FloatInferenceModel model = testNet.toFloatInferenceModel();
+
+        Matrix expected = testNet.predict(100d, 2d);
+        Matrix prediction = model.predict(100d, 2d);
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(expected.get(i, 0), prediction.get(i, 0), 1e-5);
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+        File file = File.createTempFile("lann", ".bin");
+        file.deleteOnExit();
+        testNet.save(file);
+
+        NN loadedNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+        loadedNet.load(file);
+
+        assertEquals(testNet.predict(100d, 2d), loadedNet.predict(100d, 2d));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testLoadCorruptStream() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        testNet.save(os);
+
+        byte[] bytes = os.toByteArray();
+        bytes[bytes.length / 2] ^= 1;
+        testNet.load(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testStreamDataset() {
+        final int[] passes = {0};
+        Dataset data = new StreamDataset(new Supplier<Stream<Dataset.Batch>>() {
+            @Override
+            public Stream<Dataset.Batch> get() {
+                passes[0]++;
+                // 7 samples in elements of uneven size, each sample's input and output is its index
+                return Stream.of(samples(0, 3), samples(3, 4), samples(4, 6), samples(6, 7));
+            }
+        }, 2);
+
+        for (int pass = 1; pass <= 2; pass++) {
+            int[] sizes = {2, 2, 2, 1};
+            int batches = 0;
+            int sample = 0;
+            for (Dataset.Batch batch : data) {
+                assertEquals(sizes[batches++], batch.size());
+                for (int i = 0; i < batch.size(); i++, sample++) {
+                    assertEquals(sample, batch.getInput()[i].get(0, 0), 0);
+                    assertEquals(sample, batch.getOutput()[i].get(0, 0), 0);
+                }
+            }
+            assertEquals(sizes.length, batches);
+            assertEquals(7, sample);
+            assertEquals(pass, passes[0]);
+        }
+    }
+
+    private static Dataset.Batch samples(int from, int to) {
+        Matrix[] input = new Matrix[to - from];
+        Matrix[] output = new Matrix[to - from];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = new Matrix((double) (from + i));
+            output[i] = new Matrix((double) (from + i));
+        }
+        return new Dataset.Batch(input, output);
+    }
+
+    @Test
+    public void testStreamDatasetClosesStream() {
+        PersistentMachineLearningAlgorithm testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+
+        final int[] closed = {0};
+        Dataset data = new StreamDataset(new Supplier<Stream<Dataset.Batch>>() {
+            @Override
+            public Stream<Dataset.Batch> get() {
+                return Stream.of(new Dataset.Batch(new Matrix(100d, 2d), new Matrix(1d, 0d, 0d)),
+                        new Dataset.Batch(new Matrix(0d, 10d), new Matrix(0d, 1d, 0d)))
+                        .onClose(new Runnable() {
+                            @Override
+                            public void run() {
+                                closed[0]++;
+                            }
+                        });
+            }
+        }, 1);
+
+        testNet.fit(data, 5, 0);
+        assertEquals(5, closed[0]);
+
+        testNet.evaluate(data);
+        assertEquals(6, closed[0]);
+
+        // A pass which stops at a failed batch is closed too
+        Dataset failing = new StreamDataset(new Supplier<Stream<Dataset.Batch>>() {
+            @Override
+            public Stream<Dataset.Batch> get() {
+                return Stream.of(new Dataset.Batch(new Matrix(100d, 2d), new Matrix(1d, 0d, 0d)),
+                        new Dataset.Batch(new Matrix(1d), new Matrix(0d, 1d, 0d)))
+                        .onClose(new Runnable() {
+                            @Override
+                            public void run() {
+                                closed[0]++;
+                            }
+                        });
+            }
+        }, 1);
+        try {
+            testNet.fit(failing, 5, 0);
+        } catch (RuntimeException e) {
+            // Expected, the second input is too small
+        }
+        assertEquals(7, closed[0]);
+    }
+
+    @Test
+    public void testTrainingHistory() {
+        PersistentMachineLearningAlgorithm testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).build();
+
+        Matrix[] input = {new Matrix(100d, 2d), new Matrix(0d, 10d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+
+        TrainingHistory history = new TrainingHistory();
+        double error = testNet.fit(input, output, 5, 0, history);
+
+        assertEquals(5, history.getEpochs().size());
+        assertEquals(error, history.getEpochs().get(4).getLoss(), 0);
+        assertEquals(2, history.getEpochs().get(0).getSamples());
+        assertEquals(false, Double.isNaN(history.getEpochs().get(0).getGradientNorm()));
+    }
+
+    @Test
+    public void testDefaultMethods() {
+        // An algorithm written against the original interface, which only implements its first methods
+        final int[] trainedSamples = {0};
+        MachineLearningAlgorithm algorithm = new MachineLearningAlgorithm() {
+            public Matrix predict(Matrix input) {
+                return input.transpose();
+            }
+
+            public Matrix predict(double... input) {
+                return predict(new Matrix(input));
+            }
+
+            public double train(Matrix[] input, Matrix[] output) {
+                trainedSamples[0] += input.length;
+                return 1;
+            }
+
+            public double fit(Matrix[] input, Matrix[] output, double maxIterations) {
+                return fit(input, output, maxIterations, 0.001);
+            }
+
+            public double fit(Matrix[] input, Matrix[] output, double maxIterations, double tolerance) {
+                return fit(new ArrayDataset(input, output), maxIterations, tolerance);
+            }
+
+            public double fit(Matrix[] input, Matrix[] output) {
+                return fit(input, output, 1000, 0.001);
+            }
+
+            public double accuracy(Matrix[] input, Matrix[] output) {
+                return accuracy(input, output, false);
+            }
+
+            public double accuracy(Matrix[] input, Matrix[] output, boolean argmax) {
+                return 0;
+            }
+        };
+
+        Matrix[] input = {new Matrix(1d, 2d), new Matrix(3d, 4d)};
+        TrainingHistory history = new TrainingHistory();
+        algorithm.fit(input, input, new FitOptions.Builder().setMaxIterations(3).setListener(history).build());
+
+        assertEquals(6, trainedSamples[0]);
+        assertEquals(3, history.getEpochs().size());
+        assertEquals(new Matrix(new double[][]{{1d, 2d}, {3d, 4d}}),
+                algorithm.predictBatch(new Matrix(new double[][]{{1d, 2d}, {3d, 4d}})));
+        assertEquals(0, algorithm.evaluate(new ArrayDataset(input, input)), 0);
+    }
+
+    @Test
+    public void testSoftmaxCrossEntropy() {
+        PersistentMachineLearningAlgorithm testNet = new NN.Builder().addLayer(2, 4, new Sigmoid())
+                .addLayer(4, 3, new Softmax()).setLoss(new SoftmaxCrossEntropy()).build();
+
+        Matrix[] input = {new Matrix(100d, 2d), new Matrix(0d, 10d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+
+        double firstError = testNet.train(input, output);
+        // The sigmoid units saturate on these inputs, so they learn slowly
+        testNet.fit(input, output, 5000, 0);
+
+        assertEquals(true, testNet.train(input, output) < firstError);
+        assertEquals(1, testNet.predict(new Matrix(100d, 2d)).get(0, 0), 0.1);
+        assertEquals(1, testNet.predict(new Matrix(0d, 10d)).get(1, 0), 0.1);
+    }
+
+    @Test
+    public void testDefaultOptimizer() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                .setLoss(new SoftmaxCrossEntropy()).build();
+
+        Matrix[] input = {new Matrix(1d, 0d), new Matrix(0d, 1d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+
+        double firstError = testNet.train(input, output);
+        testNet.fit(input, output, 500, 0);
+
+        assertEquals(true, testNet.train(input, output) < firstError);
+        assertEquals(1, testNet.predict(new Matrix(1d, 0d)).get(0, 0), 0.1);
+        assertEquals(1, testNet.predict(new Matrix(0d, 1d)).get(1, 0), 0.1);
+    }
+
+    @Test
+    public void testOptimizers() {
+        Matrix[] input = {new Matrix(1d, 0d), new Matrix(0d, 1d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+
+        for (Optimizer optimizer : new Optimizer[]{new Momentum(), new RMSProp(), new Adam()}) {
+            NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                    .setLoss(new SoftmaxCrossEntropy()).setOptimizer(optimizer).build();
+            testNet.setLearningRate(0.05);
+
+            double firstError = testNet.train(input, output);
+            testNet.fit(input, output, 500, 0);
+
+            assertEquals(true, testNet.train(input, output) < firstError);
+            assertEquals(1, testNet.predict(new Matrix(1d, 0d)).get(0, 0), 0.1);
+            assertEquals(1, testNet.predict(new Matrix(0d, 1d)).get(1, 0), 0.1);
+        }
+    }
+
+    @Test
+    public void testEarlyStopping() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax()).build();
+
+        Matrix[] input = {new Matrix(1d, 0d), new Matrix(0d, 1d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+        // The validation labels are swapped, so the validation error rises as the training error falls
+        Dataset validation = new ArrayDataset(input, new Matrix[]{output[1], output[0]});
+
+        TrainingHistory history = new TrainingHistory();
+        testNet.fit(input, output, new FitOptions.Builder().setValidationData(validation).setEarlyStopping(3, 0)
+                .setRestoreBestWeights(true).setLearningRateSchedule(new StepDecay(1, 0.9)).setListener(history)
+                .build());
+
+        assertEquals(true, history.getEpochs().size() < 1000);
+        double bestValidationLoss = Double.POSITIVE_INFINITY;
+        for (TrainingListener.Epoch epoch : history.getEpochs())
+            bestValidationLoss = Math.min(bestValidationLoss, epoch.getValidationLoss());
+        assertEquals(bestValidationLoss, testNet.evaluate(validation), 1e-12);
+        assertEquals(0.1, testNet.getLearningRate(), 0);
+    }
+
+    @Test
+    public void testRestoreBestWeightsError() {
+        // The training error falls every epoch, while the validation error is lowest after the second epoch
+        final double[] trainingErrors = {5, 4, 3, 2, 1};
+        final double[] validationErrors = {3, 1, 2, 2, 2};
+        final int[] epoch = {0};
+        final double[] parameters = {0};
+        AbstractMachineLearningAlgorithm algorithm = new AbstractMachineLearningAlgorithm() {
+            public Matrix predict(Matrix input) {
+                return input;
+            }
+
+            public Matrix predict(double... input) {
+                return new Matrix(input);
+            }
+
+            public double train(Matrix[] input, Matrix[] output) {
+                parameters[0] = epoch[0];
+                return trainingErrors[epoch[0]++];
+            }
+
+            @Override
+            public double evaluate(Dataset data) {
+                return validationErrors[epoch[0] - 1];
+            }
+
+            @Override
+            protected double[] getParameters() {
+                return parameters.clone();
+            }
+
+            @Override
+            protected void setParameters(double[] restored) {
+                parameters[0] = restored[0];
+            }
+        };
+
+        Matrix[] input = {new Matrix(1d)};
+        double error = algorithm.fit(input, input, new FitOptions.Builder().setValidationData(new ArrayDataset(input,
+                input)).setEarlyStopping(3, 0).setRestoreBestWeights(true).build());
+
+        assertEquals(5, epoch[0]);
+        assertEquals(1, parameters[0], 0);
+        // The error belongs to the restored weights, not to the last epoch
+        assertEquals(4, error, 0);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testStepDecayStepSize() {
+        new StepDecay(0, 0.9);
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void testCosineDecayIterations() {
+        new CosineDecay(0);
+    }
+
+    @Test
+    public void testGeneticTrainer() {
+        final Dataset data = new ArrayDataset(new Matrix[]{new Matrix(1d, 0d), new Matrix(0d, 1d)},
+                new Matrix[]{new Matrix(1d, 0d), new Matrix(0d, 1d)});
+        GeneticTrainer trainer = new GeneticTrainer(new int[]{2, 4, 2}, 20, 0.5, 0.2, true, true);
+        GeneticTrainer.FitnessFunction fitness = new GeneticTrainer.FitnessFunction() {
+            @Override
+            public double fitness(NN network) {
+                return network.evaluate(data);
+            }
+        };
+
+        double firstFitness = trainer.train(fitness, 1, false).getFitness();
+        GeneticTrainer.Gene best = trainer.train(fitness, 30, false);
+
+        assertEquals(true, best.getFitness() < firstFitness);
+        assertEquals(best.getFitness(), best.getNeuralNetwork().evaluate(data), 1e-12);
+    }
+
+    @Test
+    public void testGenomeCrossover() {
+        final Dataset data = new ArrayDataset(new Matrix[]{new Matrix(1d, 0d), new Matrix(0d, 1d)},
+                new Matrix[]{new Matrix(1d, 0d), new Matrix(0d, 1d)});
+        GeneticTrainer.FitnessFunction fitness = new GeneticTrainer.FitnessFunction() {
+            @Override
+            public double fitness(NN network) {
+                return network.evaluate(data);
+            }
+        };
+
+        for (GeneticTrainer.Crossover crossover : GeneticTrainer.Crossover.values()) {
+            GeneticTrainer trainer = new GeneticTrainer(new int[]{2, 4, 2}, 20, 0.5, 0.2, true, true);
+            trainer.setCrossover(crossover);
+            double firstFitness = trainer.train(fitness, 1, false).getFitness();
+            GeneticTrainer.Gene best = trainer.train(fitness, 30, false);
+            assertEquals(true, best.getFitness() < firstFitness);
+        }
+
+        // The genome is the storage of the network, so changing it changes the predictions
+        GeneticTrainer.Gene gene = new GeneticTrainer(new int[]{2, 2}, 1, 0.5, 0.2, false, true).getGenes().get(0);
+        assertEquals(6, gene.getGenome().length);
+        gene.getGenome()[4] = 42;
+        assertEquals(42, gene.getNeuralNetwork().predict(0d, 0d).get(0, 0), 0);
+    }
+
+    @Test
+    public void testBulkActivations() {
+        double[] in = {-3, -0.5, 0, 0.25, 2, 7};
+        Activation[] functions = {new Linear(), new Sigmoid(), new Tanh(), new ReLU(), new LeakyReLU(),
+                new Softplus(), new Binary()};
+        for (Activation function : functions) {
+            double[] out = new double[in.length];
+            double[] derivative = new double[in.length];
+            function.activate(in, out, in.length);
+            function.derivativeFromOutput(in, out, derivative, in.length);
+            for (int i = 0; i < in.length; i++) {
+                assertEquals(function.activate(in[i]), out[i], 0);
+                assertEquals(function.derivative(in[i]), derivative[i], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testKernels() {
+        // The loaded kernels may be the vector backend, which must agree with the scalar kernels
+        Kernels scalar = new Kernels();
+        double[] x = new double[37], y = new double[37], expected = new double[37];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = Math.sin(i) * 4;
+            y[i] = Math.cos(i);
+        }
+        assertEquals(scalar.dot(x, 1, y, 2, 33), Kernels.INSTANCE.dot(x, 1, y, 2, 33), 1e-12);
+
+        double[] actual = y.clone();
+        System.arraycopy(y, 0, expected, 0, y.length);
+        scalar.axpy(0.5, x, 3, expected, 1, 34);
+        Kernels.INSTANCE.axpy(0.5, x, 3, actual, 1, 34);
+        for (int i = 0; i < x.length; i++)
+            assertEquals(expected[i], actual[i], 1e-12);
+
+        for (Activation function : new Activation[]{new Sigmoid(), new Tanh(), new ReLU(), new Softplus()}) {
+            scalar.activate(function, x, expected, x.length);
+            Kernels.INSTANCE.activate(function, x, actual, x.length);
+            for (int i = 0; i < x.length; i++)
+                assertEquals(expected[i], actual[i], 1e-12);
+        }
+    }
+
+    @Test
+    public void testApproximateActivations() {
+        NN exact = new NN.Builder().addLayer(2, 8, new Tanh()).addLayer(8, 3, new Sigmoid()).build();
+        NN approximate = new NN.Builder().addLayer(2, 8, new Tanh(), true).addLayer(8, 3, new Sigmoid(), true)
+                .build();
+        approximate.setParameters(exact.getParameters());
+
+        Matrix expected = exact.predict(0.3d, -2d);
+        Matrix actual = approximate.predict(0.3d, -2d);
+        for (int i = 0; i < 3; i++)
+            assertEquals(expected.get(i, 0), actual.get(i, 0), 1e-4);
+
+        // The approximate activation functions are saved, so a loaded network predicts the same
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        approximate.save(saved);
+        NN loaded = new NN.Builder().addLayer(2, 8, new Tanh()).addLayer(8, 3, new Sigmoid()).build();
+        loaded.load(new ByteArrayInputStream(saved.toByteArray()));
+        assertEquals(actual.get(0, 0), loaded.predict(0.3d, -2d).get(0, 0), 0);
+    }
+
+    @Test
+    public void testStableSoftmax() {
+        NN testNet = new NN.Builder().addLayer(2, 3, new Softmax()).build();
+        Matrix[] input = {new Matrix(1000d, 2d), new Matrix(0d, 1000d)};
+
+        // e^1000 overflows, so the softmax only stays finite when the largest input is subtracted first
+        Matrix[] predictions = {testNet.predict(1000d, 2d), testNet.predictBatch(new Matrix(new double[][]{
+                {1000d, 2d}, {0d, 1000d}})).transpose(), testNet.toInferenceModel().predict(0d, 1000d),
+                testNet.toFloatInferenceModel().predict(0d, 1000d)};
+        for (Matrix prediction : predictions) {
+            double sum = 0;
+            for (int i = 0; i < prediction.getNumRows(); i++) {
+                assertEquals(false, Double.isNaN(prediction.get(i, 0)));
+                sum += prediction.get(i, 0);
+            }
+            assertEquals(1, sum, 1e-6);
+        }
+        assertEquals(false, Double.isNaN(testNet.train(input, new Matrix[]{new Matrix(1d, 0d, 0d),
+                new Matrix(0d, 1d, 0d)})));
+    }
+
+    @Test
+    public void testQuantizedInferenceModel() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax())
+                .setLoss(new SoftmaxCrossEntropy()).build();
+
+        Matrix[] input = {new Matrix(1d, 0d), new Matrix(0d, 1d)};
+        Matrix[] output = {new Matrix(1d, 0d, 0d), new Matrix(0d, 1d, 0d)};
+        testNet.fit(input, output, 500, 0);
+
+        for (QuantizedInferenceModel.Granularity granularity : QuantizedInferenceModel.Granularity.values()) {
+            QuantizedInferenceModel quantized = testNet.toQuantizedInferenceModel(granularity);
+            assertEquals(0, quantized.accuracyLoss(testNet, input, output), 0);
+            for (int i = 0; i < 3; i++)
+                assertEquals(testNet.predict(0.5d, 1d).get(i, 0), quantized.predict(0.5d, 1d).get(i, 0), 0.02);
+
+            IClassifier<String> classifier = new Classifier<>(quantized, new String[]{"One", "Two", "Three"});
+            assertEquals("Two", classifier.classify(new Matrix(0d, 1d)).getClassification());
+        }
+    }
+
+    @Test
+    public void testPruning() {
+        NN testNet = new NN.Builder().addLayer(20, 30, new Sigmoid()).addLayer(30, 3, new Softmax()).build();
+
+        assertEquals(480 + 72, testNet.pruneToSparsity(0.8));
+        assertEquals(0, testNet.prune(0.001));
+
+        InferenceModel sparse = testNet.toInferenceModel();
+        InferenceModel dense = testNet.toInferenceModel(0);
+        assertEquals(true, sparse.isSparse(0));
+        assertEquals(false, dense.isSparse(0));
+
+        double[] input = new double[20];
+        for (int i = 0; i < input.length; i++)
+            input[i] = i / 20.0;
+        double[] expected = new double[3];
+        double[] actual = new double[3];
+        testNet.predict(input, expected);
+        sparse.predict(input, actual);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], actual[i], 1e-12);
+    }
+
+    @Test
+    public void testCompiledModel() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Tanh()).addLayer(4, 4, new ReLU())
+                .addLayer(4, 3, new Softmax()).build();
+        testNet.prune(0.2);
+
+        CompiledModel compiled = testNet.compile();
+        assertEquals(true, compiled.isCompiled());
+        for (double[] input : new double[][]{{1, 0}, {0.5, -2}, {1000, 2}}) {
+            double[] expected = new double[3];
+            double[] actual = new double[3];
+            testNet.predict(input, expected);
+            compiled.predict(input, actual);
+            for (int i = 0; i < expected.length; i++)
+                assertEquals(expected[i], actual[i], 1e-12);
+        }
+
+        NN large = new NN.Builder().addLayer(100, 100, new Sigmoid()).build();
+        CompiledModel fallback = large.compile();
+        assertEquals(false, fallback.isCompiled());
+        assertEquals(large.predict(new double[100]).get(5, 0), fallback.predict(new double[100]).get(5, 0), 0);
+    }
+
+    @Test
+    public void testCachedModel() throws InterruptedException {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax()).build();
+        CachedModel cached = new CachedModel.Builder(testNet).setMaxSize(2).build();
+
+        Matrix prediction = cached.predict(1d, 0d);
+        assertEquals(testNet.predict(1d, 0d), cached.predict(1d, 0d));
+        assertEquals(1, cached.getHitCount());
+        assertEquals(1, cached.getMissCount());
+
+        cached.predict(0d, 1d);
+        cached.predict(0.5d, 0.5d);
+        assertEquals(1, cached.getEvictionCount());
+        assertEquals(2, cached.size());
+
+        // Training the network directly discards the cached predictions
+        testNet.train(new Matrix[]{new Matrix(1d, 0d)}, new Matrix[]{new Matrix(0d, 0d, 1d)});
+        assertEquals(testNet.predict(1d, 0d), cached.predict(1d, 0d));
+        assertEquals(false, prediction.equals(cached.predict(1d, 0d)));
+        assertEquals(1, cached.size());
+
+        CachedModel expiring = new CachedModel.Builder(testNet).setTimeToLive(1, TimeUnit.MILLISECONDS).build();
+        expiring.predict(1d, 0d);
+        Thread.sleep(20);
+        expiring.predict(1d, 0d);
+        assertEquals(0, expiring.getHitCount());
+    }
+
+    @Test
+    public void testCachedModelAfterFailedTraining() {
+        NN testNet = new NN.Builder().addLayer(2, 4, new Sigmoid()).addLayer(4, 3, new Softmax()).setBatchSize(1)
+                .build();
+        CachedModel cached = new CachedModel.Builder(testNet).build();
+        Matrix prediction = cached.predict(1d, 0d);
+
+        // The first batch is applied before the second one fails
+        try {
+            testNet.train(new Matrix[]{new Matrix(1d, 0d), new Matrix(1d)},
+                    new Matrix[]{new Matrix(0d, 0d, 1d), new Matrix(0d, 0d, 1d)});
+        } catch (RuntimeException e) {
+            // Expected, the second input is too small
+        }
+        assertEquals(false, prediction.equals(testNet.predict(1d, 0d)));
+        assertEquals(testNet.predict(1d, 0d), cached.predict(1d, 0d));
+    }
+
+    @Test
+    public void testTrainingPool() {
+        NN serial = new NN.Builder().addLayer(3, 5, new Sigmoid()).addLayer(5, 2, new Softmax()).setBatchSize(7)
+                .build();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        NN parallel = new NN.Builder().addLayer(3, 5, new Sigmoid()).addLayer(5, 2, new Softmax()).setBatchSize(7)
+                .setTrainingPool(pool).build();
+        parallel.setParameters(serial.getParameters());
+
+        // 10 samples make a batch of 7, which does not divide evenly into 3 shards, and a batch of 3
+        Matrix[] input = new Matrix[10];
+        Matrix[] output = new Matrix[10];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = new Matrix(i / 10d, 1 - i / 10d, i % 3);
+            output[i] = i % 2 == 0 ? new Matrix(1d, 0d) : new Matrix(0d, 1d);
+        }
+        for (int epoch = 0; epoch < 20; epoch++)
+            assertEquals(serial.train(input, output), parallel.train(input, output), 1e-9);
+        pool.shutdown();
+
+        double[] expected = serial.getParameters();
+        double[] actual = parallel.getParameters();
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], actual[i], 1e-9);
+    }
 }
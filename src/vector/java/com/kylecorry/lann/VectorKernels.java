@@ -0,0 +1,77 @@
+package com.kylecorry.lann;
+
+import com.kylecorry.lann.activation.Activation;
+import com.kylecorry.lann.activation.ReLU;
+import com.kylecorry.lann.activation.Sigmoid;
+import com.kylecorry.lann.activation.Tanh;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels which use the SIMD instructions of the CPU through the Java Vector API. They are loaded by {@link Kernels}
+ * when the jdk.incubator.vector module is present, for example with --add-modules jdk.incubator.vector on Java 17.
+ * The lanewise exp and tanh may differ from Math.exp and Math.tanh in the last bit.
+ */
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1);
+
+    @Override
+    String getName() {
+        return "vector " + SPECIES.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int n) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++)
+            result += a[aOffset + i] * b[bOffset + i];
+        return result;
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n) {
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector w = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            v.fma(scale, w).intoArray(y, yOffset + i);
+        }
+        for (; i < n; i++)
+            y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    void activate(Activation function, double[] in, double[] out, int n) {
+        // Only the exact built in classes are vectorized, a subclass may change their behaviour
+        Class<?> type = function.getClass();
+        if (type != Sigmoid.class && type != Tanh.class && type != ReLU.class) {
+            super.activate(function, in, out, n);
+            return;
+        }
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, in, i);
+            DoubleVector y;
+            if (type == Sigmoid.class)
+                y = ONE.div(x.neg().lanewise(VectorOperators.EXP).add(1));
+            else if (type == Tanh.class)
+                y = x.lanewise(VectorOperators.TANH);
+            else
+                y = x.max(0);
+            y.intoArray(out, i);
+        }
+        for (; i < n; i++)
+            out[i] = function.activate(in[i]);
+    }
+}